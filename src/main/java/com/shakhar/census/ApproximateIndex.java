@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.Codec;
+import com.shakhar.util.Disk;
+import com.shakhar.util.HNSWGraph;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Approximate nearest neighbour index over the rows of a
+ * <tt>CompositionIndex</tt>, held in an <tt>HNSWGraph</tt>. The graph refers
+ * to the rows and compositions of the composition index, so only its levels
+ * and links are written to its own file, with the fingerprint of the rows
+ * of the composition index it was built over. A graph built over other rows,
+ * such as the rows of a rebuild interrupted before the graph was written, is
+ * ignored.
+ *
+ * @author Shakhar Dasgupta
+ */
+class ApproximateIndex {
+
+    private static final long SEED = 1;
+
+    private static class Tables implements Serializable {
+
+        int m;
+        int fingerprint;
+        int entryPoint;
+        byte[] levels;
+        int[] baseLinks;
+        int[] upperOffsets;
+        int[] upperLinks;
+    }
+
+    // Writes the tables as length prefixed arrays of primitives.
+    private static class TablesCodec implements Codec<Tables> {
+
+        @Override
+        public void write(DataOutputStream out, Tables tables) throws IOException {
+            out.writeInt(tables.m);
+            out.writeInt(tables.fingerprint);
+            out.writeInt(tables.entryPoint);
+            out.writeInt(tables.levels.length);
+            out.write(tables.levels);
+            writeInts(out, tables.baseLinks);
+            writeInts(out, tables.upperOffsets);
+            writeInts(out, tables.upperLinks);
+        }
+
+        @Override
+        public Tables read(DataInputStream in) throws IOException {
+            Tables tables = new Tables();
+            tables.m = in.readInt();
+            tables.fingerprint = in.readInt();
+            tables.entryPoint = in.readInt();
+            tables.levels = new byte[in.readInt()];
+            in.readFully(tables.levels);
+            tables.baseLinks = readInts(in);
+            tables.upperOffsets = readInts(in);
+            tables.upperLinks = readInts(in);
+            return tables;
+        }
+
+        private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+            out.writeInt(values.length);
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        private static int[] readInts(DataInputStream in) throws IOException {
+            int[] values = new int[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readInt();
+            }
+            return values;
+        }
+    }
+
+    private final Disk<Tables> disk;
+    private final CompositionIndex index;
+    private HNSWGraph graph;
+    private int fingerprint;
+
+    /**
+     * Opens the index stored in the files with the specified name, over the
+     * rows of the specified composition index. The index is empty if there
+     * are no such files.
+     *
+     * @param name name of the files backing the index
+     * @param index the composition index whose rows are linked
+     * @throws IOException if the files cannot be opened
+     */
+    ApproximateIndex(String name, CompositionIndex index) throws IOException {
+        this.index = index;
+        disk = new Disk<>(name + ".index", name + ".objects", 0, new TablesCodec());
+        Tables tables = disk.isEmpty() ? null : disk.readElement(0);
+        CompositionIndex.Snapshot rows = index.snapshot();
+        if (tables != null && rows != null && tables.levels.length == rows.size() && tables.fingerprint == rows.getFingerprint()) {
+            fingerprint = tables.fingerprint;
+            graph = new HNSWGraph(PopulationCodec.COMPOSITION_SIZE, rows.getPoints(), tables.m, tables.levels, tables.baseLinks, tables.upperOffsets, tables.upperLinks, tables.entryPoint);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the index has not been built for the current
+     * rows of the composition index.
+     *
+     * @return <tt>true</tt> if the index has not been built
+     */
+    boolean isEmpty() {
+        return graph == null || graph.size() != index.size() || fingerprint != index.getFingerprint();
+    }
+
+    /**
+     * Builds the graph over the current rows of the composition index and
+     * writes it to its files, replacing the previous graph.
+     *
+     * @param m the number of neighbours of a row on the upper levels, twice
+     * as many on level 0
+     * @param efConstruction the number of candidates explored when the
+     * neighbours of a row are chosen
+     */
+    void build(int m, int efConstruction) {
+        CompositionIndex.Snapshot rows = index.snapshot();
+        if (rows == null) {
+            return;
+        }
+        HNSWGraph built = HNSWGraph.build(PopulationCodec.COMPOSITION_SIZE, rows.getPoints(), m, efConstruction, SEED);
+        Tables tables = new Tables();
+        tables.m = built.getM();
+        tables.fingerprint = rows.getFingerprint();
+        tables.entryPoint = built.getEntryPoint();
+        tables.levels = built.getLevels();
+        tables.baseLinks = built.getBaseLinks();
+        tables.upperOffsets = built.getUpperOffsets();
+        tables.upperLinks = built.getUpperLinks();
+        disk.writeElement(0, tables);
+        fingerprint = tables.fingerprint;
+        graph = built;
+    }
+
+    /**
+     * Returns rows of the composition index whose compositions are near the
+     * specified one, from the nearest to the farthest. The rows are the
+     * nearest ones found by the graph, which may miss some of the exact
+     * nearest rows.
+     *
+     * @param composition the composition of the query
+     * @param k the number of rows to return
+     * @param efSearch the number of candidates kept while searching, at
+     * least <tt>k</tt>
+     * @param excludedName place name of a row which must not be returned, or
+     * <tt>null</tt>
+     * @param squaredDistances receives the squared distance of every
+     * returned row, or <tt>null</tt>
+     * @return the rows found, at most <tt>k</tt> of them
+     */
+    int[] nearest(float[] composition, int k, int efSearch, String excludedName, float[] squaredDistances) {
+        if (isEmpty()) {
+            return new int[0];
+        }
+        float[] distances = new float[Math.max(k + 1, efSearch)];
+        int[] found = graph.nearest(composition, distances.length, distances);
+        int count = 0;
+        int[] rows = new int[Math.min(k, found.length)];
+        for (int i = 0; i < found.length && count < rows.length; i++) {
+            if (excludedName != null && excludedName.equals(index.getName(found[i]))) {
+                continue;
+            }
+            if (squaredDistances != null) {
+                squaredDistances[count] = distances[i];
+            }
+            rows[count++] = found[i];
+        }
+        if (count < rows.length) {
+            int[] trimmed = new int[count];
+            System.arraycopy(rows, 0, trimmed, 0, count);
+            return trimmed;
+        }
+        return rows;
+    }
+
+    /**
+     * Measures the recall of the graph against the exact nearest rows of the
+     * composition index: the fraction of the exact <tt>k</tt> nearest rows of
+     * sampled rows which the graph also returns. Rows at the same distance as
+     * the <tt>k</tt>-th exact row count as exact, so ties do not lower the
+     * recall.
+     *
+     * @param queries the number of rows sampled as queries
+     * @param k the number of nearest rows compared for every query
+     * @param efSearch the number of candidates kept while searching
+     * @return the recall, between 0 and 1
+     */
+    float recall(int queries, int k, int efSearch) {
+        if (isEmpty() || index.size() == 0) {
+            return 0;
+        }
+        Random random = new Random(SEED);
+        int dimensions = PopulationCodec.COMPOSITION_SIZE;
+        float[] points = index.getPoints();
+        long hits = 0;
+        long expected = 0;
+        for (int q = 0; q < queries; q++) {
+            int row = random.nextInt(index.size());
+            float[] composition = new float[dimensions];
+            System.arraycopy(points, row * dimensions, composition, 0, dimensions);
+            String name = index.getName(row);
+            float[] exactDistances = new float[k];
+            int[] exact = index.nearest(composition, k, -1, name, exactDistances);
+            float[] approximateDistances = new float[k];
+            int[] approximate = nearest(composition, k, efSearch, name, approximateDistances);
+            expected += exact.length;
+            for (int i = 0; i < approximate.length; i++) {
+                if (exact.length > 0 && approximateDistances[i] <= exactDistances[exact.length - 1]) {
+                    hits++;
+                }
+            }
+        }
+        return expected == 0 ? 1 : (float) hits / expected;
+    }
+}
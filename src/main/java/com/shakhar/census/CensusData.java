@@ -20,17 +20,28 @@ import com.shakhar.clusterer.Cluster;
 import com.shakhar.clusterer.ClusteredPopulation;
 import com.shakhar.clusterer.PopulationClusterer;
 import com.shakhar.util.BTreeMap;
+import com.shakhar.util.ChunkedParser;
+import com.shakhar.util.DelimitedRecordReader;
+import com.shakhar.util.Downloader;
 import com.shakhar.util.HashCache;
+import com.shakhar.util.JsonArrayReader;
+import com.shakhar.util.LRUCache;
 import com.shakhar.util.MyHashMap;
-import java.io.BufferedReader;
+import com.shakhar.util.StringCodec;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.net.URL;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import javax.json.Json;
-import javax.json.stream.JsonParser;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 /**
  * Data from 2010 Census. Data is fetched from
@@ -43,120 +54,439 @@ public class CensusData {
     private static final String CACHE_FILENAME = "cache";
     private static final String STATES_URL = "http://www2.census.gov/geo/docs/reference/state.txt";
     private static final String PLACES_URL = "http://www2.census.gov/geo/docs/reference/codes/files/national_places.txt";
-    private static final String CENSUS_URL = "http://api.census.gov/data/2010/sf1?get=P0030001,P0030002,P0030003,P0030004,P0030005,P0030006,P0030007,P0030008&for=place:*";
+    private static final String COUNTIES_URL = "http://www2.census.gov/geo/docs/reference/codes/files/national_county.txt";
+    private static final String CENSUS_BASE_URL = "http://api.census.gov/data/2010/sf1?get=P0030001,P0030002,P0030003,P0030004,P0030005,P0030006,P0030007,P0030008";
     private static final int BTREE_DEGREE = 32;
     private static final String STATES_BTREE_NAME = "states";
     private static final String POPULATIONS_BTREE_NAME = "populations";
+    private static final String DICTIONARY_SUFFIX = "-dictionary";
+    private static final String INDEX_SUFFIX = "-kdtree";
+    private static final String GRAPH_SUFFIX = "-hnsw";
+    // Smallest number of rows for which the approximate index is built, and its parameters.
+    private static final int GRAPH_MIN_SIZE = 100000;
+    private static final int GRAPH_M = 8;
+    private static final int GRAPH_EF_CONSTRUCTION = 48;
+    private static final int GRAPH_EF_SEARCH = 64;
+    // Number of neighbours of every place kept by the neighbour graph, nationally and in its state.
+    private static final String NEIGHBORS_SUFFIX = "-knn";
+    private static final int NEIGHBORS_K = 50;
+    private static final String STORAGE_FORMAT_SUFFIX = "#Storage-Format";
+    private static final String STORAGE_FORMAT = "6";
     private static final int CLUSTER_COUNT = 10;
     private static final int MAX_ITERATION_COUNT = 40;
+    private static final String[] CENSUS_COLUMNS = {"P0030001", "P0030002", "P0030003", "P0030004", "P0030005", "P0030006", "P0030007", "P0030008"};
+    private static final int STATE_COLUMN = 8;
+    private static final int PLACE_COLUMN = 9;
+    private static final int COUNTY_COLUMN = 9;
+    private static final int TRACT_COLUMN = 10;
+    private static final int BLOCK_GROUP_COLUMN = 11;
+    private static final int MIN_CHUNK_LENGTH = 1 << 16;
+    private static final int QUERY_CACHE_SIZE = 256;
+    private static final ForkJoinPool POOL = new ForkJoinPool();
 
+    private final GeographyLevel level;
     private final HashCache<String, String> cache;
+    private final Downloader downloader;
     private BTreeMap<String, State> states;
     private BTreeMap<String, Population> populations;
+    private final GeographyDictionary dictionary;
+    private final PopulationCodec populationCodec;
+    private final CompositionIndex index;
+    private final ApproximateIndex approximateIndex;
+    private final NeighborGraph neighborGraph;
+    private final LoadListener listener;
+    private final LRUCache<QueryKey, List<Neighbor>> queryCache = new LRUCache<>(QUERY_CACHE_SIZE);
+    // Incremented whenever the indexes are rebuilt, so that results cached for earlier data are never returned.
+    private volatile int version;
+
+    // Identifies a nearest populations query against one version of the data.
+    private static class QueryKey {
+
+        private final int version;
+        private final String place;
+        private final String state;
+        private final int k;
+        private final DistanceMetric metric;
+        private final PopulationRange range;
+
+        QueryKey(int version, String place, String state, int k, DistanceMetric metric, PopulationRange range) {
+            this.version = version;
+            this.place = place;
+            this.state = state;
+            this.k = k;
+            this.metric = metric;
+            this.range = range;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey key = (QueryKey) o;
+            return version == key.version && place.equals(key.place) && (state == null ? key.state == null : state.equals(key.state)) && k == key.k && metric.equals(key.metric) && (range == null ? key.range == null : range.equals(key.range));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = version;
+            hash = 31 * hash + place.hashCode();
+            hash = 31 * hash + (state == null ? 0 : state.hashCode());
+            hash = 31 * hash + k;
+            hash = 31 * hash + (range == null ? 0 : range.hashCode());
+            return 31 * hash + metric.hashCode();
+        }
+    }
 
     /**
-     * Constructs <tt>CensusData</tt> after fetching data from the Census API.
+     * Constructs <tt>CensusData</tt> for places after fetching data from the
+     * Census API.
      *
      * @throws IOException if there is problem connecting to the Census API
      */
     public CensusData() throws IOException {
+        this(GeographyLevel.PLACE);
+    }
+
+    /**
+     * Constructs <tt>CensusData</tt> at the specified <tt>GeographyLevel</tt>
+     * after fetching data from the Census API.
+     *
+     * @param level the <tt>GeographyLevel</tt> of the populations
+     * @throws IOException if there is problem connecting to the Census API
+     */
+    public CensusData(GeographyLevel level) throws IOException {
+        this(level, null);
+    }
+
+    /**
+     * Constructs <tt>CensusData</tt> at the specified <tt>GeographyLevel</tt>
+     * after fetching data from the Census API, reporting the progress of every
+     * phase of loading to the specified listener.
+     *
+     * @param level the <tt>GeographyLevel</tt> of the populations
+     * @param listener the listener receiving the progress of loading, or
+     * <tt>null</tt>
+     * @throws IOException if there is problem connecting to the Census API
+     */
+    public CensusData(GeographyLevel level, LoadListener listener) throws IOException {
+        this.level = level;
+        this.listener = listener;
         cache = new HashCache<>(CACHE_FILENAME);
-        if (cache.isEmpty()) {
-            fetch();
+        downloader = new Downloader(cache, CACHE_FILENAME);
+        List<String> urls = getSourceUrls();
+        for (int i = 0; i < urls.size(); i++) {
+            if (!downloader.isCached(urls.get(i))) {
+                downloader.fetch(urls.get(i));
+            }
+            progress(LoadPhase.FETCH, i + 1, urls.size());
+        }
+        String populationsName = getPopulationsBTreeName(level);
+        if (!STORAGE_FORMAT.equals(cache.get(populationsName + STORAGE_FORMAT_SUFFIX))) {
+            deleteStore(populationsName);
+            deleteStore(populationsName + DICTIONARY_SUFFIX);
+            deleteStore(populationsName + INDEX_SUFFIX);
+            deleteStore(populationsName + GRAPH_SUFFIX);
+            deleteStore(populationsName + NEIGHBORS_SUFFIX);
+            cache.put(populationsName + STORAGE_FORMAT_SUFFIX, STORAGE_FORMAT);
         }
         states = new BTreeMap<>(STATES_BTREE_NAME, BTREE_DEGREE);
-        populations = new BTreeMap<>(POPULATIONS_BTREE_NAME, BTREE_DEGREE);
+        dictionary = new GeographyDictionary(populationsName + DICTIONARY_SUFFIX);
+        populationCodec = new PopulationCodec(dictionary);
+        populations = new BTreeMap<>(populationsName, BTREE_DEGREE, new StringCodec(), populationCodec);
+        index = new CompositionIndex(populationsName + INDEX_SUFFIX, POOL);
+        approximateIndex = new ApproximateIndex(populationsName + GRAPH_SUFFIX, index);
+        neighborGraph = new NeighborGraph(populationsName + NEIGHBORS_SUFFIX, index);
         if (states.isEmpty() || populations.isEmpty()) {
             parse();
+        } else if (index.isEmpty() || (approximateIndex.isEmpty() && index.size() >= GRAPH_MIN_SIZE)) {
+            progress(LoadPhase.INDEX, 0, 1);
+            buildIndexes(index.isEmpty());
+            progress(LoadPhase.INDEX, 1, 1);
+        } else if (neighborGraph.isEmpty()) {
+            buildNeighborGraph();
+        }
+        progress(LoadPhase.READY, 1, 1);
+    }
+
+    private void progress(LoadPhase phase, long workDone, long max) {
+        if (listener != null) {
+            listener.progress(phase, workDone, max);
         }
     }
 
+    // Deletes the files of a store written in an older format.
+    private static void deleteStore(String name) {
+        new File(name + ".index").delete();
+        new File(name + ".objects").delete();
+    }
+
     /**
-     * Fetches data from the Census API. This method is automatically called by
-     * the constructor. However, it may be called to refresh data though it is
-     * not expected that the Census Data will ever update.
+     * Returns the <tt>GeographyLevel</tt> of the populations.
      *
-     * @throws IOException if there is problem connecting to the Census API
+     * @return the <tt>GeographyLevel</tt> of the populations
      */
-    public final void fetch() throws IOException {
-        String line;
-        StringBuilder lines = new StringBuilder();
-        URL statesURL = new URL(STATES_URL);
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(statesURL.openStream()))) {
-            while ((line = br.readLine()) != null) {
-                lines.append(line).append(System.lineSeparator());
-            }
+    public GeographyLevel getLevel() {
+        return level;
+    }
+
+    private static String getPopulationsBTreeName(GeographyLevel level) {
+        if (level == GeographyLevel.PLACE) {
+            return POPULATIONS_BTREE_NAME;
         }
-        cache.put(STATES_URL, lines.toString());
+        return POPULATIONS_BTREE_NAME + "-" + level.name().toLowerCase().replace('_', '-');
+    }
 
-        lines.setLength(0);
-        URL placesURL = new URL(PLACES_URL);
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(placesURL.openStream()))) {
-            while ((line = br.readLine()) != null) {
-                lines.append(line).append(System.lineSeparator());
+    // Returns the URL of the Census API query at this level, for the specified state or nationally if the state is null.
+    private String getCensusUrl(String stateFips) {
+        String url = CENSUS_BASE_URL + "&for=" + level.getForClause();
+        if (stateFips != null) {
+            url += "&in=state:" + stateFips;
+            if (!level.getInClause().isEmpty()) {
+                url += "%20" + level.getInClause();
             }
         }
-        cache.put(PLACES_URL, lines.toString());
+        return url;
+    }
 
-        lines.setLength(0);
-        URL censusURL = new URL(CENSUS_URL);
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(censusURL.openStream()))) {
-            while ((line = br.readLine()) != null) {
-                lines.append(line).append(System.lineSeparator());
+    // Returns the URLs of the sources at this level. The list of states is downloaded first if needed.
+    private List<String> getSourceUrls() throws IOException {
+        if (!downloader.isCached(STATES_URL)) {
+            downloader.fetch(STATES_URL);
+        }
+        List<String> urls = new ArrayList<>();
+        urls.add(STATES_URL);
+        if (level.isQueriedByState()) {
+            urls.add(COUNTIES_URL);
+            DelimitedRecordReader reader = new DelimitedRecordReader(cache.get(STATES_URL).toCharArray(), '|');
+            reader.next();
+            while (reader.next()) {
+                urls.add(getCensusUrl(reader.getString(0)));
             }
+        } else {
+            urls.add(PLACES_URL);
+            urls.add(getCensusUrl(null));
+        }
+        return urls;
+    }
+
+    /**
+     * Fetches data from the Census API. This method is automatically called by
+     * the constructor. However, it may be called to refresh data though it is
+     * not expected that the Census Data will ever update. Sources which are
+     * already cached are revalidated with conditional requests, so a refresh
+     * of unchanged sources costs one round trip per source.
+     *
+     * @return <tt>true</tt> if any of the sources changed
+     * @throws IOException if there is problem connecting to the Census API
+     */
+    public final boolean fetch() throws IOException {
+        boolean changed = false;
+        for (String url : getSourceUrls()) {
+            changed |= downloader.fetch(url);
         }
-        cache.put(CENSUS_URL, lines.toString());
+        return changed;
     }
 
     public final void parse() throws IOException {
-        try (BufferedReader br = new BufferedReader(new StringReader(cache.get(STATES_URL)))) {
-            String line;
-            br.readLine();
-            while ((line = br.readLine()) != null) {
-                String[] tokens = line.split("\\|");
-                states.put(tokens[0], new State(tokens[0], tokens[1], tokens[2]));
+        MyHashMap<Integer, State> statesByFips = new MyHashMap<>();
+        DelimitedRecordReader reader = new DelimitedRecordReader(cache.get(STATES_URL).toCharArray(), '|');
+        reader.next();
+        List<String> stateFipsCodes = new ArrayList<>();
+        while (reader.next()) {
+            State state = new State(reader.getString(0), reader.getString(1), reader.getString(2)).intern();
+            states.put(state.getFipsCode(), state);
+            statesByFips.put(reader.getInt(0), state);
+            stateFipsCodes.add(state.getFipsCode());
+        }
+
+        ChunkedParser chunkedParser = new ChunkedParser(POOL, MIN_CHUNK_LENGTH);
+        SortedMap<String, Population> parsed = new TreeMap<>();
+        if (level.isQueriedByState()) {
+            MyHashMap<Integer, String[]> counties = parseCounties();
+            for (int i = 0; i < stateFipsCodes.size(); i++) {
+                parseCensus(chunkedParser, cache.get(getCensusUrl(stateFipsCodes.get(i))), statesByFips, null, counties, parsed);
+                progress(LoadPhase.PARSE, i + 1, stateFipsCodes.size());
+            }
+        } else {
+            MyHashMap<Integer, Place> places = parsePlaces(chunkedParser, statesByFips);
+            progress(LoadPhase.PARSE, 1, 2);
+            parseCensus(chunkedParser, cache.get(getCensusUrl(null)), statesByFips, places, null, parsed);
+            progress(LoadPhase.PARSE, 2, 2);
+        }
+        progress(LoadPhase.INDEX, 0, 1);
+        for (Population population : parsed.values()) {
+            dictionary.getStateCode(population.getPlace().getState());
+            if (population.getPlace().getCounty() != null) {
+                dictionary.getCountyCode(population.getPlace().getCounty());
             }
         }
+        dictionary.save();
+        populations.putAll(parsed);
+        buildIndexes(true);
+        progress(LoadPhase.INDEX, 1, 1);
+    }
+
+    // Builds the composition index if requested, then the approximate index if there are enough rows to need it, then starts the neighbor graph.
+    // The version is bumped once the indexes are built, so a query keyed on the new version searches the new indexes, and results
+    // cached meanwhile under the old version are never looked up again.
+    private void buildIndexes(boolean composition) {
+        if (composition) {
+            index.build(getPopulationRecords());
+        }
+        if (index.size() >= GRAPH_MIN_SIZE) {
+            approximateIndex.build(GRAPH_M, GRAPH_EF_CONSTRUCTION);
+        }
+        version++;
+        queryCache.clear();
+        buildNeighborGraph();
+    }
+
+    // Builds the neighbor graph on a background thread, so that loading does not wait for it; queries are searched until it is ready.
+    // The build runs on its own pool of low priority threads, one core short of the machine, so that queries keep POOL to themselves.
+    private void buildNeighborGraph() {
+        Thread builder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ForkJoinPool buildPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                }, null, false);
+                try {
+                    neighborGraph.build(NEIGHBORS_K, buildPool);
+                } finally {
+                    buildPool.shutdown();
+                }
+            }
+        }, "Neighbor graph builder");
+        builder.setPriority(Thread.MIN_PRIORITY);
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     * Returns <tt>true</tt> if the neighbours of every place have been
+     * precomputed for the current data, so that queries for at most 50
+     * places similar to a place, under the euclidean distance and with no
+     * range of total population, are answered by a lookup. The neighbours
+     * are computed in the background after the data is loaded.
+     *
+     * @return <tt>true</tt> if the neighbours of every place are ready
+     */
+    public boolean isNeighborGraphReady() {
+        return !neighborGraph.isEmpty();
+    }
 
-        MyHashMap<String, Place> places = new MyHashMap<>();
-        try (BufferedReader br = new BufferedReader(new StringReader(cache.get(PLACES_URL)))) {
-            String line;
-            br.readLine();
-            br.readLine();
-            while ((line = br.readLine()) != null) {
-                String[] tokens = line.split("\\|");
-                places.put(tokens[1] + tokens[2], new Place(states.get(tokens[1]), tokens[2], tokens[3], tokens[6]));
-                br.readLine();
+    private MyHashMap<Integer, Place> parsePlaces(ChunkedParser chunkedParser, final MyHashMap<Integer, State> statesByFips) {
+        char[] buffer = cache.get(PLACES_URL).toCharArray();
+        DelimitedRecordReader reader = new DelimitedRecordReader(buffer, '|');
+        reader.next();
+        List<MyHashMap<Integer, Place>> chunks = chunkedParser.parse(buffer, reader.getPosition(), buffer.length - reader.getPosition(), new ChunkedParser.ChunkHandler<MyHashMap<Integer, Place>>() {
+            @Override
+            public MyHashMap<Integer, Place> parse(char[] buffer, int offset, int length) {
+                MyHashMap<Integer, Place> places = new MyHashMap<>();
+                DelimitedRecordReader reader = new DelimitedRecordReader(buffer, offset, length, '|');
+                while (reader.next()) {
+                    int stateFips = reader.getInt(1);
+                    int placeFips = reader.getInt(2);
+                    places.put(placeKey(stateFips, placeFips), new Place(statesByFips.get(stateFips), reader.getString(2), reader.getString(3), reader.getString(6)));
+                }
+                return places;
             }
+        });
+        MyHashMap<Integer, Place> places = new MyHashMap<>();
+        for (MyHashMap<Integer, Place> chunk : chunks) {
+            places.putAll(chunk);
         }
+        return places;
+    }
 
-        try (JsonParser parser = Json.createParser(new StringReader(cache.get(CENSUS_URL)))) {
-            int c = 0;
-            String[] arr = new String[10];
-            boolean header = true;
-            while (parser.hasNext()) {
-                JsonParser.Event event = parser.next();
-                switch (event) {
-                    case START_ARRAY:
-                        c = 0;
-                        arr = new String[10];
-                        break;
-                    case VALUE_STRING:
-                        arr[c++] = parser.getString();
-                        break;
-                    case END_ARRAY:
-                        if (!header && arr != null) {
-                            Place place = places.get(arr[8] + arr[9]);
-                            populations.put(place.toString(), new Population(place, Integer.parseInt(arr[0]), Integer.parseInt(arr[1]), Integer.parseInt(arr[2]), Integer.parseInt(arr[3]), Integer.parseInt(arr[4]), Integer.parseInt(arr[5]), Integer.parseInt(arr[6]), Integer.parseInt(arr[7])));
-                        }
-                        header = false;
-                        arr = null;
-                        break;
+    // Returns the FIPS code and name of every county, keyed by countyKey(). The county reference file has no header.
+    private MyHashMap<Integer, String[]> parseCounties() {
+        MyHashMap<Integer, String[]> counties = new MyHashMap<>();
+        DelimitedRecordReader reader = new DelimitedRecordReader(cache.get(COUNTIES_URL).toCharArray(), ',');
+        while (reader.next()) {
+            counties.put(countyKey(reader.getInt(1), reader.getInt(2)), new String[]{reader.getString(2), reader.getString(3)});
+        }
+        return counties;
+    }
+
+    // Parses a Census API response into populations. Places are looked up in places at the place level and built from counties otherwise.
+    private void parseCensus(ChunkedParser chunkedParser, String response, final MyHashMap<Integer, State> statesByFips, final MyHashMap<Integer, Place> places, final MyHashMap<Integer, String[]> counties, SortedMap<String, Population> parsed) throws IOException {
+        char[] buffer = response.toCharArray();
+        JsonArrayReader rows = new JsonArrayReader(buffer);
+        if (!rows.next()) {
+            return;
+        }
+        String[] geographyColumns = level.getGeographyColumns();
+        final int[] columns = new int[CENSUS_COLUMNS.length + geographyColumns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String name = i < CENSUS_COLUMNS.length ? CENSUS_COLUMNS[i] : geographyColumns[i - CENSUS_COLUMNS.length];
+            if ((columns[i] = rows.indexOf(name)) < 0) {
+                throw new IOException("Census API response has no " + name + " column");
+            }
+        }
+        List<List<Population>> chunks = chunkedParser.parse(buffer, rows.getPosition(), buffer.length - rows.getPosition(), new ChunkedParser.ChunkHandler<List<Population>>() {
+            @Override
+            public List<Population> parse(char[] buffer, int offset, int length) {
+                List<Population> chunk = new ArrayList<>();
+                JsonArrayReader rows = new JsonArrayReader(buffer, offset, length);
+                int[] values = new int[columns.length];
+                while (rows.next()) {
+                    for (int i = 0; i < columns.length; i++) {
+                        values[i] = rows.getInt(columns[i]);
+                    }
+                    Place place;
+                    if (places != null) {
+                        place = places.get(placeKey(values[STATE_COLUMN], values[PLACE_COLUMN]));
+                    } else {
+                        place = createTract(statesByFips.get(values[STATE_COLUMN]), counties.get(countyKey(values[STATE_COLUMN], values[COUNTY_COLUMN])), values[TRACT_COLUMN], values.length > BLOCK_GROUP_COLUMN ? values[BLOCK_GROUP_COLUMN] : -1);
+                    }
+                    if (place != null) {
+                        chunk.add(new Population(place, values[0], values[1], values[2], values[3], values[4], values[5], values[6], values[7]));
+                    }
                 }
+                return chunk;
+            }
+        });
+        for (List<Population> chunk : chunks) {
+            for (Population population : chunk) {
+                parsed.put(population.getPlace().toString(), population);
             }
         }
     }
 
+    // Returns the tract, or the block group if blockGroup is not negative, in the specified state and county.
+    private static Place createTract(State state, String[] county, int tract, int blockGroup) {
+        if (state == null || county == null) {
+            return null;
+        }
+        return new Place(state, county[0], zeroPad(tract, 6), blockGroup < 0 ? null : Integer.toString(blockGroup), county[1]);
+    }
+
+    private static String zeroPad(int value, int width) {
+        String digits = Integer.toString(value);
+        StringBuilder padded = new StringBuilder(width);
+        for (int i = digits.length(); i < width; i++) {
+            padded.append('0');
+        }
+        return padded.append(digits).toString();
+    }
+
+    // Returns a key uniquely identifying a county from its state and county FIPS codes. County FIPS codes have three digits.
+    private static int countyKey(int stateFips, int countyFips) {
+        return stateFips * 1000 + countyFips;
+    }
+
+    // Returns a key uniquely identifying a place from its state and place FIPS codes. Place FIPS codes have five digits.
+    private static int placeKey(int stateFips, int placeFips) {
+        return stateFips * 100000 + placeFips;
+    }
+
     /**
      * Returns the <tt>List</tt> of <tt>Place</tt> names.
      *
@@ -164,12 +494,24 @@ public class CensusData {
      */
     public List<String> getPlaceNames() {
         List<String> placeNames = new ArrayList<>();
-        for (Population population : populations.values()) {
-            placeNames.add(population.getPlace().toString());
+        PopulationRecord record = getPopulationRecords();
+        while (record.next()) {
+            placeNames.add(record.getPlaceName());
         }
         return placeNames;
     }
 
+    /**
+     * Returns a view over the stored <tt>Population</tt> records, positioned
+     * before the first record. The view is not thread safe; every scan
+     * should use its own.
+     *
+     * @return a view over the stored <tt>Population</tt> records
+     */
+    public PopulationRecord getPopulationRecords() {
+        return new PopulationRecord(populations.cursor(), populationCodec, dictionary);
+    }
+
     /**
      * Returns the <tt>List</tt> of <tt>State</tt> names.
      *
@@ -193,24 +535,16 @@ public class CensusData {
         return populations.get(place);
     }
 
-    // Returns the euclidean distance between two Population objects. The distance is calculated for every racial category.
-    private float euclideanDistance(Population population1, Population population2) {
-        float white1Percent = (float) population1.getWhitePopulation() / population1.getTotalPopulation() * 100;
-        float black1Percent = (float) population1.getBlackPopulation() / population1.getTotalPopulation() * 100;
-        float indian1Percent = (float) population1.getAmericanIndianAndAlaskaNativePopulation() / population1.getTotalPopulation() * 100;
-        float asian1Percent = (float) population1.getAsianPopulation() / population1.getTotalPopulation() * 100;
-        float hawaiian1Percent = (float) population1.getNativeHawaiianAndOtherPacificIslanderPopulation() / population1.getTotalPopulation() * 100;
-        float other1Percent = (float) population1.getOtherRacesPopulation() / population1.getTotalPopulation() * 100;
-        float multi1Percent = (float) population1.getMultiRacialPopulation() / population1.getTotalPopulation() * 100;
-        float white2Percent = (float) population2.getWhitePopulation() / population2.getTotalPopulation() * 100;
-        float black2Percent = (float) population2.getBlackPopulation() / population2.getTotalPopulation() * 100;
-        float indian2Percent = (float) population2.getAmericanIndianAndAlaskaNativePopulation() / population2.getTotalPopulation() * 100;
-        float asian2Percent = (float) population2.getAsianPopulation() / population2.getTotalPopulation() * 100;
-        float hawaiian2Percent = (float) population2.getNativeHawaiianAndOtherPacificIslanderPopulation() / population2.getTotalPopulation() * 100;
-        float other2Percent = (float) population2.getOtherRacesPopulation() / population2.getTotalPopulation() * 100;
-        float multi2Percent = (float) population2.getMultiRacialPopulation() / population2.getTotalPopulation() * 100;
-        
-        return (float) Math.sqrt(Math.pow(white1Percent - white2Percent, 2) + Math.pow(black1Percent - black2Percent, 2) + Math.pow(indian1Percent - indian2Percent, 2) + Math.pow(asian1Percent - asian2Percent, 2) + Math.pow(hawaiian1Percent - hawaiian2Percent, 2) + Math.pow(other1Percent - other2Percent, 2) + Math.pow(multi1Percent - multi2Percent, 2));
+    // Returns the canonical State with the specified name, to which the states of stored populations can be compared by identity.
+    private State getStateByName(String name) {
+        if (name != null) {
+            for (State state : dictionary.getStates()) {
+                if (state.getName().equals(name)) {
+                    return state;
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -226,28 +560,325 @@ public class CensusData {
      * is the most similar to the specified <tt>Population</tt>
      */
     public Population getSimilarPopulation(Population population, String state) {
-        float min = Float.MAX_VALUE;
-        Population similar = null;
-        float d;
-        for (Population p : populations.values()) {
-            if (!p.equals(population) && (state == null || p.getPlace().getState().getName().equals(state)) && (d = euclideanDistance(population, p)) < min) {
-                min = d;
-                similar = p;
+        List<Neighbor> nearest = getNearestPopulations(population, state, 1);
+        return nearest.isEmpty() ? null : nearest.get(0).getPopulation();
+    }
+
+    /**
+     * Returns the <tt>k</tt> places in the specified state whose racial
+     * composition is the nearest to the composition of the specified
+     * <tt>Population</tt>, ranked from the nearest, with their distances.
+     * The places are found through an exact nearest neighbour index, so the
+     * result is the same on every call. A query restricted to a state only
+     * visits the places of that state. Once the neighbours of every place
+     * are precomputed, see <tt>isNeighborGraphReady()</tt>, a query for at
+     * most 50 places nationally or in the state of the place is a lookup.
+     *
+     * @param population <tt>Population</tt> to which the returned places are
+     * to be similar
+     * @param state name of the state where the places are to be found, or
+     * null to find them in all states and territories
+     * @param k the number of places to return
+     * @return at most <tt>k</tt> neighbors, from the nearest to the farthest
+     */
+    public List<Neighbor> getNearestPopulations(Population population, String state, int k) {
+        return getNearestPopulations(population, state, k, DistanceMetric.EUCLIDEAN);
+    }
+
+    /**
+     * Returns the <tt>k</tt> places in the specified state whose racial
+     * composition is the nearest to the composition of the specified
+     * <tt>Population</tt> under the specified metric, ranked from the
+     * nearest, with their distances. Queries under the built-in transformable
+     * metrics are answered by exact indexes; queries under other metrics scan
+     * every place of the state, or every place in parallel. The results of
+     * recent queries are cached until the data is reloaded, so repeating a
+     * query does not search again.
+     *
+     * @param population <tt>Population</tt> to which the returned places are
+     * to be similar
+     * @param state name of the state where the places are to be found, or
+     * null to find them in all states and territories
+     * @param k the number of places to return
+     * @param metric the metric of the distances
+     * @return at most <tt>k</tt> neighbors, from the nearest to the farthest
+     */
+    public List<Neighbor> getNearestPopulations(Population population, String state, int k, DistanceMetric metric) {
+        return getNearestPopulations(population, state, k, metric, null);
+    }
+
+    /**
+     * Returns the <tt>k</tt> places in the specified state whose total
+     * population is in the specified range and whose racial composition is
+     * the nearest to the composition of the specified <tt>Population</tt>
+     * under the specified metric, ranked from the nearest, with their
+     * distances. The range is applied by the index rather than to the
+     * result, so every returned place is in the range: places out of the
+     * range are skipped by the search, and when few places are in the range
+     * they are taken from an index sorted by total population and only they
+     * are compared. Per-share weights are given by
+     * <tt>DistanceMetric.weightedEuclidean()</tt>.
+     *
+     * @param population <tt>Population</tt> to which the returned places are
+     * to be similar
+     * @param state name of the state where the places are to be found, or
+     * null to find them in all states and territories
+     * @param k the number of places to return
+     * @param metric the metric of the distances
+     * @param range the range of the total population of the places, or null
+     * to find places of any size
+     * @return at most <tt>k</tt> neighbors, from the nearest to the farthest
+     */
+    public List<Neighbor> getNearestPopulations(Population population, String state, int k, DistanceMetric metric, PopulationRange range) {
+        return getNearestPopulations(population, state, k, metric, range, null);
+    }
+
+    /**
+     * Returns the <tt>k</tt> places in the specified state whose total
+     * population is in the specified range and whose racial composition is
+     * the nearest to the composition of the specified <tt>Population</tt>
+     * under the specified metric, like <tt>getNearestPopulations()</tt>,
+     * reporting the places found so far to the specified listener as the
+     * search proceeds. Queries from all states and territories search the
+     * states one after the other, from the state whose compositions are the
+     * nearest to the query, and the listener receives the nearest places
+     * found so far whenever a state changed them, so that a close result can
+     * be shown long before the search is over. The last call of the listener
+     * receives the result. Cached results, lookups of precomputed neighbours
+     * and queries restricted to a state are only reported once complete.
+     *
+     * @param population <tt>Population</tt> to which the returned places are
+     * to be similar
+     * @param state name of the state where the places are to be found, or
+     * null to find them in all states and territories
+     * @param k the number of places to return
+     * @param metric the metric of the distances
+     * @param range the range of the total population of the places, or null
+     * to find places of any size
+     * @param listener the listener receiving the places found so far, or
+     * <tt>null</tt>
+     * @return at most <tt>k</tt> neighbors, from the nearest to the farthest
+     */
+    public List<Neighbor> getNearestPopulations(Population population, String state, int k, DistanceMetric metric, PopulationRange range, final NeighborListener listener) {
+        QueryKey key = new QueryKey(version, population.getPlace().toString(), state, k, metric, range);
+        List<Neighbor> cached = queryCache.get(key);
+        if (cached != null) {
+            return complete(new ArrayList<>(cached), listener);
+        }
+        List<Neighbor> neighbors = new ArrayList<>();
+        int stateCode = -1;
+        if (state != null) {
+            State filter = getStateByName(state);
+            if (filter == null) {
+                return complete(neighbors, listener);
             }
+            stateCode = dictionary.getStateCode(filter);
         }
+        float[] distances = new float[k];
+        int[] rows = null;
+        if (metric == DistanceMetric.EUCLIDEAN && range == null) {
+            rows = neighborGraph.nearest(population.getPlace().toString(), population.getComposition(), k, stateCode, distances);
+            for (int i = 0; rows != null && i < rows.length; i++) {
+                distances[i] = metric.fromSquaredEuclidean(distances[i]);
+            }
+        }
+        // Places read for an earlier report are kept, so every place is read once.
+        final MyHashMap<Integer, Population> read = new MyHashMap<>();
+        if (rows == null && listener != null) {
+            rows = index.nearest(population.getComposition(), k, stateCode, population.getPlace().toString(), metric, range, distances, new CompositionIndex.Progress() {
+                @Override
+                public void improved(int[] rows, float[] distances) {
+                    listener.neighborsFound(Collections.unmodifiableList(toNeighbors(rows, distances, read)), false);
+                }
+            });
+        } else if (rows == null) {
+            rows = index.nearest(population.getComposition(), k, stateCode, population.getPlace().toString(), metric, range, distances);
+        }
+        neighbors.addAll(toNeighbors(rows, distances, read));
+        queryCache.put(key, new ArrayList<>(neighbors));
+        return complete(neighbors, listener);
+    }
+
+    private List<Neighbor> toNeighbors(int[] rows, float[] distances, MyHashMap<Integer, Population> read) {
+        List<Neighbor> neighbors = new ArrayList<>();
+        for (int i = 0; i < rows.length; i++) {
+            Population population = read.get(rows[i]);
+            if (population == null) {
+                population = populations.get(index.getName(rows[i]));
+                read.put(rows[i], population);
+            }
+            neighbors.add(new Neighbor(population, distances[i]));
+        }
+        return neighbors;
+    }
 
-        return similar;
+    // Reports the result of a query to its listener, if any, and returns it.
+    private static List<Neighbor> complete(List<Neighbor> neighbors, NeighborListener listener) {
+        if (listener != null) {
+            listener.neighborsFound(Collections.unmodifiableList(new ArrayList<>(neighbors)), true);
+        }
+        return neighbors;
     }
-    
+
+    /**
+     * Returns every place whose total population is in the specified range
+     * and whose racial composition is within the specified euclidean
+     * distance of the composition of the specified <tt>Population</tt>, from
+     * the nearest to the farthest. The index is searched with the distance as
+     * its bound, so only the places near the query are compared, and the
+     * returned iterator reports how many places were compared per place
+     * found. Every <tt>Population</tt> is read as it is returned.
+     *
+     * @param population <tt>Population</tt> to which the returned places are
+     * to be similar
+     * @param radius the largest distance of a returned place, in percentage
+     * points
+     * @param filter the range of the total population of the places, or null
+     * to find places of any size
+     * @return an iterator over the neighbors, from the nearest to the
+     * farthest
+     */
+    public NeighborIterator getPopulationsWithin(Population population, float radius, PopulationRange filter) {
+        return new NeighborIterator(index, populations, index.within(population.getComposition(), radius, population.getPlace().toString(), filter));
+    }
+
+    /**
+     * Writes, for every place, the most similar other place from all states
+     * and territories and the most similar other place in its state, with
+     * their euclidean distances, to a tab separated file with a header line.
+     * Every pair of places is compared once by a parallel self-join over the
+     * compositions, which is much faster than querying every place in turn.
+     * Places without population are left out, and a place alone in its state
+     * has no most similar place in its state.
+     *
+     * @param filename name of the file to be written
+     * @throws IOException if the file cannot be written
+     */
+    public void writeMostSimilarPlaces(String filename) throws IOException {
+        int size = index.size();
+        int[] nationalRows = new int[size];
+        float[] nationalDistances = new float[size];
+        int[] stateRows = new int[size];
+        float[] stateDistances = new float[size];
+        index.joinNearest(nationalRows, nationalDistances, stateRows, stateDistances);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8))) {
+            out.write("Place\tMost similar place\tDistance\tMost similar place in state\tDistance\n");
+            for (int row = 0; row < size; row++) {
+                out.write(index.getName(row));
+                writeNearest(out, nationalRows[row], nationalDistances[row]);
+                writeNearest(out, stateRows[row], stateDistances[row]);
+                out.write('\n');
+            }
+        }
+    }
+
+    private void writeNearest(Writer out, int row, float squaredDistance) throws IOException {
+        if (row < 0) {
+            out.write("\t\t");
+        } else {
+            out.write('\t' + index.getName(row) + '\t' + String.format("%.4f", Math.sqrt(squaredDistance)));
+        }
+    }
+
+    /**
+     * Returns the fraction of nearest populations queries which were
+     * answered from the cache of recent results. Results are cached per
+     * place, state, number of places and metric, and are dropped whenever
+     * the data is reloaded.
+     *
+     * @return the hit rate of the cache, between 0 and 1
+     */
+    public float getQueryCacheHitRate() {
+        return queryCache.getHitRate();
+    }
+
+    /**
+     * Returns about the <tt>k</tt> places from all states and territories
+     * whose racial composition is the nearest to the composition of the
+     * specified <tt>Population</tt>, ranked from the nearest, with their
+     * distances. At geography levels with many places the places are found
+     * through an approximate index, which answers faster than the exact one
+     * but may miss some of the nearest places; see
+     * <tt>getApproximateRecall()</tt>. At other levels the result is exact.
+     *
+     * @param population <tt>Population</tt> to which the returned places are
+     * to be similar
+     * @param k the number of places to return
+     * @param efSearch the number of candidates kept while searching; larger
+     * values are slower and miss fewer places
+     * @return at most <tt>k</tt> neighbors, from the nearest to the farthest
+     */
+    public List<Neighbor> getApproximateNearestPopulations(Population population, int k, int efSearch) {
+        if (approximateIndex.isEmpty()) {
+            return getNearestPopulations(population, null, k);
+        }
+        List<Neighbor> neighbors = new ArrayList<>();
+        float[] squaredDistances = new float[k];
+        int[] rows = approximateIndex.nearest(population.getComposition(), k, efSearch, population.getPlace().toString(), squaredDistances);
+        for (int i = 0; i < rows.length; i++) {
+            neighbors.add(new Neighbor(populations.get(index.getName(rows[i])), (float) Math.sqrt(squaredDistances[i])));
+        }
+        return neighbors;
+    }
+
+    /**
+     * Returns about the <tt>k</tt> places from all states and territories
+     * whose racial composition is the nearest to the composition of the
+     * specified <tt>Population</tt>, searching the approximate index with
+     * its default number of candidates.
+     *
+     * @param population <tt>Population</tt> to which the returned places are
+     * to be similar
+     * @param k the number of places to return
+     * @return at most <tt>k</tt> neighbors, from the nearest to the farthest
+     */
+    public List<Neighbor> getApproximateNearestPopulations(Population population, int k) {
+        return getApproximateNearestPopulations(population, k, GRAPH_EF_SEARCH);
+    }
+
+    /**
+     * Measures the recall of <tt>getApproximateNearestPopulations()</tt>
+     * against the exact nearest places, over places sampled as queries with
+     * a fixed seed. The recall is the fraction of the exact <tt>k</tt>
+     * nearest places which the approximate search also returns.
+     *
+     * @param queries the number of places sampled as queries
+     * @param k the number of nearest places compared for every query
+     * @param efSearch the number of candidates kept while searching
+     * @return the recall, between 0 and 1, or 1 if the approximate index is
+     * not used at this geography level
+     */
+    public float getApproximateRecall(int queries, int k, int efSearch) {
+        return approximateIndex.isEmpty() ? 1 : approximateIndex.recall(queries, k, efSearch);
+    }
+
     public List<Population> getSimilarPopulations(Population population, String state) {
+        return getSimilarPopulations(population, state, DistanceMetric.EUCLIDEAN);
+    }
+
+    public List<Population> getSimilarPopulations(Population population, String state, DistanceMetric metric) {
         List<Population> pops = new ArrayList<>();
         pops.add(population);
-        for (Population p : populations.values()) {
-            if (!p.equals(population) && (state == null || p.getPlace().getState().getName().equals(state))) {
-                pops.add(p);
+        if (state == null) {
+            PopulationRecord record = getPopulationRecords();
+            while (record.next()) {
+                if (!record.holds(population)) {
+                    pops.add(record.getPopulation());
+                }
+            }
+        } else {
+            // Only the partition of the state is read from the index, and only its populations from the B-tree.
+            State filter = getStateByName(state);
+            if (filter == null) {
+                return new ArrayList<>();
+            }
+            for (String name : index.getNames(dictionary.getStateCode(filter))) {
+                if (!name.equals(population.getPlace().toString())) {
+                    pops.add(populations.get(name));
+                }
             }
         }
-        PopulationClusterer clusterer = new PopulationClusterer(CLUSTER_COUNT, MAX_ITERATION_COUNT);
+        PopulationClusterer clusterer = new PopulationClusterer(CLUSTER_COUNT, MAX_ITERATION_COUNT, metric);
         List<Cluster> clusters = clusterer.cluster(pops);
         pops = new ArrayList<>();
         for(Cluster c : clusters) {
@@ -0,0 +1,1247 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.BoundedMaxHeap;
+import com.shakhar.util.Codec;
+import com.shakhar.util.Disk;
+import com.shakhar.util.DistanceKernel;
+import com.shakhar.util.KDTree;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Nearest neighbour index over the compositions of the stored populations.
+ * The compositions are held in a <tt>KDTree</tt> partitioned by state: the
+ * rows of every state are contiguous and form a tree of their own, and a
+ * partition directory indexed by the dictionary code of the state gives the
+ * first row of every partition. A query restricted to a state only visits the
+ * rows of that state. Every row also holds the place name of its population,
+ * so a query is answered without reading the populations B-tree. Populations
+ * whose total is zero have no composition and are left out. The index is
+ * written to its own file and loaded in one read. National queries over
+ * large indexes are split across a pool of threads.
+ * <p>
+ * The compositions are also held quantized to one byte per percentage at
+ * 0.4% steps, column by column, which is a quarter of the floats and fits the
+ * national rows of every geography level in cache. Queries restricted to a
+ * small state scan the quantized columns of its partition with the integer
+ * kernel of <tt>DistanceKernel</tt> instead of walking its tree, then rerank
+ * exactly every row which the quantization error allows to be among the
+ * nearest, so they return the same rows as the tree.
+ * <p>
+ * Queries under other <tt>DistanceMetric</tt>s are answered by trees over
+ * the compositions transformed by the built-in transformable metrics, built
+ * with the same partitions when the index is loaded. Queries under metrics
+ * which are not transformable scan the rows, in parallel for large ranges.
+ * <p>
+ * Every row also holds the total population of its place, and a secondary
+ * index holds the rows of every partition sorted by total population.
+ * Queries restricted to a range of totals take the rows in the range from
+ * it, and compare only those with the query when they are few; otherwise
+ * the search skips the rows out of the range.
+ * <p>
+ * Radius queries return every row within a distance of the query, searching
+ * the tree with the distance as a fixed bound.
+ * <p>
+ * The nearest row of every row, nationally and within its state, is found
+ * by a batch self-join over the compositions laid out in columns. The join
+ * works in tiles: a tile of query rows is compared against one tile of
+ * candidate rows small enough to stay in cache before moving to the next,
+ * and tiles of query rows are joined in parallel. Candidate tiles whose
+ * bounding box is farther than the nearest rows already found are skipped.
+ * The <tt>k</tt> nearest rows of every row, kept by a
+ * <tt>NeighborGraph</tt>, are found by searching the trees from every row in
+ * parallel.
+ *
+ * @author Shakhar Dasgupta
+ */
+class CompositionIndex {
+
+    // Largest subtree searched by one thread; smaller indexes are searched sequentially.
+    private static final int SUBTREE_SIZE = 1 << 14;
+    // Quantization steps per percentage point, and the largest partition scanned instead of searched.
+    private static final float QUANTIZATION_SCALE = 2.5f;
+    private static final int SCAN_SIZE = 1 << 13;
+    // Largest number of rows in a range of total population compared directly instead of searching the tree.
+    private static final int GATHER_SIZE = 1 << 13;
+    // Rows of a query tile and of a candidate tile of the self-join.
+    private static final int QUERY_TILE = 128;
+    private static final int CANDIDATE_TILE = 512;
+    private static final DistanceMetric[] TRANSFORMED_METRICS = {DistanceMetric.HELLINGER, DistanceMetric.COSINE};
+
+    // A tree over transformed compositions, whose rows are mapped to the rows of the index and back.
+    private static class TransformedTree {
+
+        KDTree tree;
+        int[] rows;
+        int[] treeRows;
+    }
+
+    /**
+     * Rows found by a radius query.
+     */
+    static class Matches {
+
+        int[] rows;
+        float[] squaredDistances;
+        // The number of rows compared with the query to find the rows.
+        int compared;
+    }
+
+    private static class Tables implements Serializable {
+
+        float[] points;
+        byte[] splitDimensions;
+        // The partition directory: the first row of the partition of every state code, followed by the number of rows.
+        int[] partitionStarts;
+        int[] nameOffsets;
+        byte[] names;
+        int[] totals;
+    }
+
+    // Writes the tables as length prefixed arrays of primitives.
+    private static class TablesCodec implements Codec<Tables> {
+
+        @Override
+        public void write(DataOutputStream out, Tables tables) throws IOException {
+            int size = tables.splitDimensions.length;
+            out.writeInt(size);
+            for (float value : tables.points) {
+                out.writeFloat(value);
+            }
+            out.write(tables.splitDimensions);
+            out.writeInt(tables.partitionStarts.length);
+            for (int start : tables.partitionStarts) {
+                out.writeInt(start);
+            }
+            for (int offset : tables.nameOffsets) {
+                out.writeInt(offset);
+            }
+            out.writeInt(tables.names.length);
+            out.write(tables.names);
+            for (int total : tables.totals) {
+                out.writeInt(total);
+            }
+        }
+
+        @Override
+        public Tables read(DataInputStream in) throws IOException {
+            Tables tables = new Tables();
+            int size = in.readInt();
+            tables.points = new float[size * PopulationCodec.COMPOSITION_SIZE];
+            for (int i = 0; i < tables.points.length; i++) {
+                tables.points[i] = in.readFloat();
+            }
+            tables.splitDimensions = new byte[size];
+            in.readFully(tables.splitDimensions);
+            tables.partitionStarts = new int[in.readInt()];
+            for (int i = 0; i < tables.partitionStarts.length; i++) {
+                tables.partitionStarts[i] = in.readInt();
+            }
+            tables.nameOffsets = new int[size + 1];
+            for (int i = 0; i <= size; i++) {
+                tables.nameOffsets[i] = in.readInt();
+            }
+            tables.names = new byte[in.readInt()];
+            in.readFully(tables.names);
+            tables.totals = new int[size];
+            for (int i = 0; i < size; i++) {
+                tables.totals[i] = in.readInt();
+            }
+            return tables;
+        }
+    }
+
+    /**
+     * The tables of the index and every structure derived from them, which a
+     * build replaces at once. A query reads the snapshot of the index once
+     * and answers from it alone, so it never mixes the rows of one build with
+     * the trees of another.
+     */
+    static final class Snapshot {
+
+        private final Tables tables;
+        private final KDTree tree;
+        private final int stride;
+        private final byte[] quantized;
+        private final Map<DistanceMetric, TransformedTree> transformedTrees;
+        // The secondary index on total population: the rows of every partition sorted by their total, and their totals.
+        private final int[] rowsByTotal;
+        private final int[] sortedTotals;
+        private final int fingerprint;
+
+        // Derives the quantized columns, the transformed trees, the secondary index and the fingerprint from the tables.
+        private Snapshot(Tables tables, KDTree tree) {
+            this.tables = tables;
+            this.tree = tree;
+            int dimensions = PopulationCodec.COMPOSITION_SIZE;
+            int size = size();
+            stride = DistanceKernel.stride(size);
+            quantized = DistanceKernel.quantize(DistanceKernel.toColumns(tables.points, dimensions), QUANTIZATION_SCALE);
+            Map<DistanceMetric, TransformedTree> trees = new HashMap<>();
+            for (DistanceMetric metric : TRANSFORMED_METRICS) {
+                float[] points = new float[tables.points.length];
+                for (int row = 0; row < size; row++) {
+                    metric.transform(tables.points, row * dimensions, points, row * dimensions, dimensions);
+                }
+                TransformedTree transformed = new TransformedTree();
+                transformed.rows = new int[size];
+                transformed.tree = KDTree.build(dimensions, points, transformed.rows, tables.partitionStarts);
+                transformed.treeRows = new int[size];
+                for (int row = 0; row < size; row++) {
+                    transformed.treeRows[transformed.rows[row]] = row;
+                }
+                trees.put(metric, transformed);
+            }
+            transformedTrees = trees;
+            // Sort the rows of every partition by total population, ties by row.
+            long[] keys = new long[size];
+            for (int row = 0; row < size; row++) {
+                keys[row] = (long) tables.totals[row] << 32 | row;
+            }
+            for (int p = 0; p < tree.getPartitionCount(); p++) {
+                Arrays.sort(keys, tables.partitionStarts[p], tables.partitionStarts[p + 1]);
+            }
+            rowsByTotal = new int[size];
+            sortedTotals = new int[size];
+            for (int i = 0; i < size; i++) {
+                rowsByTotal[i] = (int) keys[i];
+                sortedTotals[i] = (int) (keys[i] >>> 32);
+            }
+            fingerprint = fingerprint(tables);
+        }
+
+        /**
+         * Returns the number of rows in the snapshot.
+         *
+         * @return the number of rows in the snapshot
+         */
+        int size() {
+            return tables.splitDimensions.length;
+        }
+
+        /**
+         * Returns the compositions of the rows, row after row.
+         *
+         * @return the compositions of the rows
+         */
+        float[] getPoints() {
+            return tables.points;
+        }
+
+        /**
+         * Returns the place name of the specified row.
+         *
+         * @param row the row
+         * @return the place name of the row
+         */
+        String getName(int row) {
+            int offset = tables.nameOffsets[row];
+            return new String(tables.names, offset, tables.nameOffsets[row + 1] - offset, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns a hash of the compositions and place names of the rows,
+         * which identifies the data the snapshot was built from.
+         *
+         * @return the fingerprint of the rows
+         */
+        int getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Returns the dictionary code of the state of the specified row.
+         *
+         * @param row the row
+         * @return the dictionary code of the state of the row
+         */
+        int getStateCode(int row) {
+            int lo = 0;
+            int hi = tree.getPartitionCount() - 1;
+            // The last partition starting at or before the row; empty partitions start where the next one does.
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (tables.partitionStarts[mid] <= row) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private final Disk<Tables> disk;
+    private final ForkJoinPool pool;
+    private volatile Snapshot snapshot;
+
+    /**
+     * Opens the index stored in the files with the specified name. The index
+     * is empty if there are no such files.
+     *
+     * @param name name of the files backing the index
+     * @param pool the pool running the searches of large indexes
+     * @throws IOException if the files cannot be opened
+     */
+    CompositionIndex(String name, ForkJoinPool pool) throws IOException {
+        this.pool = pool;
+        disk = new Disk<>(name + ".index", name + ".objects", 0, new TablesCodec());
+        if (!disk.isEmpty()) {
+            Tables tables = disk.readElement(0);
+            snapshot = new Snapshot(tables, new KDTree(PopulationCodec.COMPOSITION_SIZE, tables.points, tables.splitDimensions, tables.partitionStarts));
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the index has not been built.
+     *
+     * @return <tt>true</tt> if the index has not been built
+     */
+    boolean isEmpty() {
+        return snapshot == null;
+    }
+
+    /**
+     * Builds the index from every record of a view and writes it to its
+     * files, replacing the previous index. The rows are grouped by state with
+     * a counting sort before the tree of every state is built. Queries keep
+     * searching the previous snapshot until the new one is complete.
+     *
+     * @param records a view over the stored populations, positioned before
+     * the first record
+     */
+    void build(PopulationRecord records) {
+        int dimensions = PopulationCodec.COMPOSITION_SIZE;
+        int size = 0;
+        float[] points = new float[1024 * dimensions];
+        short[] stateCodes = new short[1024];
+        int[] totals = new int[1024];
+        byte[][] names = new byte[1024][];
+        while (records.next()) {
+            if (records.getTotalPopulation() == 0) {
+                continue;
+            }
+            if (size == stateCodes.length) {
+                points = copyOf(points, points.length * 2);
+                short[] codes = new short[size * 2];
+                System.arraycopy(stateCodes, 0, codes, 0, size);
+                stateCodes = codes;
+                int[] newTotals = new int[size * 2];
+                System.arraycopy(totals, 0, newTotals, 0, size);
+                totals = newTotals;
+                byte[][] newNames = new byte[size * 2][];
+                System.arraycopy(names, 0, newNames, 0, size);
+                names = newNames;
+            }
+            records.getComposition(points, size * dimensions);
+            stateCodes[size] = records.getStateCode();
+            totals[size] = records.getTotalPopulation();
+            names[size] = records.getPlaceName().getBytes(StandardCharsets.UTF_8);
+            size++;
+        }
+
+        int partitions = 0;
+        for (int i = 0; i < size; i++) {
+            partitions = Math.max(partitions, stateCodes[i] + 1);
+        }
+        Tables built = new Tables();
+        built.partitionStarts = new int[partitions + 1];
+        for (int i = 0; i < size; i++) {
+            built.partitionStarts[stateCodes[i] + 1]++;
+        }
+        for (int p = 0; p < partitions; p++) {
+            built.partitionStarts[p + 1] += built.partitionStarts[p];
+        }
+        // Row of every point once grouped by state, in the order the points were read within a state.
+        int[] grouped = new int[size];
+        int[] next = new int[partitions];
+        System.arraycopy(built.partitionStarts, 0, next, 0, partitions);
+        for (int i = 0; i < size; i++) {
+            grouped[next[stateCodes[i]]++] = i;
+        }
+        built.points = new float[size * dimensions];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(points, grouped[i] * dimensions, built.points, i * dimensions, dimensions);
+        }
+        int[] order = new int[size];
+        KDTree builtTree = KDTree.build(dimensions, built.points, order, built.partitionStarts);
+        built.splitDimensions = builtTree.getSplitDimensions();
+        built.nameOffsets = new int[size + 1];
+        built.totals = new int[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            order[i] = grouped[order[i]];
+            built.totals[i] = totals[order[i]];
+            built.nameOffsets[i] = length;
+            length += names[order[i]].length;
+        }
+        built.nameOffsets[size] = length;
+        built.names = new byte[length];
+        for (int i = 0; i < size; i++) {
+            byte[] name = names[order[i]];
+            System.arraycopy(name, 0, built.names, built.nameOffsets[i], name.length);
+        }
+        disk.writeElement(0, built);
+        snapshot = new Snapshot(built, builtTree);
+    }
+
+    private static int fingerprint(Tables tables) {
+        return 31 * Arrays.hashCode(tables.points) + Arrays.hashCode(tables.names);
+    }
+
+    private static float[] copyOf(float[] array, int length) {
+        float[] copy = new float[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    /**
+     * Returns the current snapshot of the index, or <tt>null</tt> if the
+     * index has not been built. Callers which make several calls about the
+     * same rows read them from one snapshot.
+     *
+     * @return the current snapshot, or <tt>null</tt>
+     */
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the number of rows in the index.
+     *
+     * @return the number of rows in the index
+     */
+    int size() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * Returns the compositions of the rows, row after row.
+     *
+     * @return the compositions of the rows
+     */
+    float[] getPoints() {
+        Snapshot current = snapshot;
+        return current == null ? new float[0] : current.getPoints();
+    }
+
+    /**
+     * Returns the place name of the specified row.
+     *
+     * @param row the row
+     * @return the place name of the row
+     */
+    String getName(int row) {
+        return snapshot.getName(row);
+    }
+
+    /**
+     * Returns a hash of the compositions and place names of the rows, which
+     * identifies the data the index was built from.
+     *
+     * @return the fingerprint of the rows
+     */
+    int getFingerprint() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.getFingerprint();
+    }
+
+    /**
+     * Returns the place names of the rows of the specified state.
+     *
+     * @param stateCode the dictionary code of the state
+     * @return the place names of the rows of the state
+     */
+    List<String> getNames(int stateCode) {
+        Snapshot current = snapshot;
+        List<String> names = new ArrayList<>();
+        if (current != null && stateCode < current.tree.getPartitionCount()) {
+            for (int row = current.tables.partitionStarts[stateCode]; row < current.tables.partitionStarts[stateCode + 1]; row++) {
+                names.add(current.getName(row));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the rows whose compositions are nearest to the specified one,
+     * from the nearest to the farthest.
+     *
+     * @param composition the composition of the query
+     * @param k the number of rows to return
+     * @param stateCode the dictionary code of the state the rows must be in,
+     * or -1 for any state
+     * @param excludedName place name of a row which must not be returned, or
+     * <tt>null</tt>
+     * @param squaredDistances receives the squared distance of every
+     * returned row, or <tt>null</tt>
+     * @return the nearest rows, at most <tt>k</tt> of them
+     */
+    int[] nearest(float[] composition, int k, int stateCode, String excludedName, float[] squaredDistances) {
+        return nearest(snapshot, composition, k, stateCode, excludedName, null, squaredDistances);
+    }
+
+    /**
+     * Returns the rows whose compositions are nearest to the specified one
+     * among the rows whose total population is in the specified range, from
+     * the nearest to the farthest. When few rows are in the range, they are
+     * read from the secondary index on total population and only they are
+     * compared with the query; otherwise the tree is searched and the rows
+     * out of the range are skipped.
+     *
+     * @param composition the composition of the query
+     * @param k the number of rows to return
+     * @param stateCode the dictionary code of the state the rows must be in,
+     * or -1 for any state
+     * @param excludedName place name of a row which must not be returned, or
+     * <tt>null</tt>
+     * @param range the range of the total population of the rows, or
+     * <tt>null</tt> for any total
+     * @param squaredDistances receives the squared distance of every
+     * returned row, or <tt>null</tt>
+     * @return the nearest rows, at most <tt>k</tt> of them
+     */
+    int[] nearest(float[] composition, int k, int stateCode, String excludedName, PopulationRange range, float[] squaredDistances) {
+        return nearest(snapshot, composition, k, stateCode, excludedName, range, squaredDistances);
+    }
+
+    // Answers a euclidean query from the snapshot alone.
+    private int[] nearest(Snapshot current, float[] composition, int k, int stateCode, String excludedName, PopulationRange range, float[] squaredDistances) {
+        if (current == null || stateCode >= current.tree.getPartitionCount()) {
+            return new int[0];
+        }
+        BoundedMaxHeap heap = new BoundedMaxHeap(k);
+        int[] candidates = range == null ? null : rowsInRange(current, range, stateCode, GATHER_SIZE);
+        if (candidates != null) {
+            for (int row : candidates) {
+                float distance = current.tree.squaredDistance(composition, row);
+                if (heap.accepts(row, distance) && (excludedName == null || !excludedName.equals(current.getName(row)))) {
+                    heap.offer(row, distance);
+                }
+            }
+            return heap.drain(squaredDistances);
+        }
+        KDTree.Filter filter = filter(current, excludedName, range, null);
+        if (stateCode >= 0) {
+            int lo = current.tables.partitionStarts[stateCode];
+            int hi = current.tables.partitionStarts[stateCode + 1];
+            if (hi - lo <= SCAN_SIZE) {
+                scan(current, composition, lo, hi, filter, heap);
+            } else {
+                current.tree.nearest(composition, filter, stateCode, heap);
+            }
+        } else if (pool.getParallelism() > 1 && current.tree.size() > SUBTREE_SIZE) {
+            current.tree.nearest(composition, filter, heap, pool, SUBTREE_SIZE);
+        } else {
+            current.tree.nearest(composition, filter, heap);
+        }
+        return heap.drain(squaredDistances);
+    }
+
+    /**
+     * Returns the rows whose compositions are nearest to the specified one
+     * under the specified metric, among the rows whose total population is
+     * in the specified range, from the nearest to the farthest.
+     *
+     * @param composition the composition of the query
+     * @param k the number of rows to return
+     * @param stateCode the dictionary code of the state the rows must be in,
+     * or -1 for any state
+     * @param excludedName place name of a row which must not be returned, or
+     * <tt>null</tt>
+     * @param metric the metric of the distances
+     * @param range the range of the total population of the rows, or
+     * <tt>null</tt> for any total
+     * @param distances receives the distance of every returned row under the
+     * metric, or <tt>null</tt>
+     * @return the nearest rows, at most <tt>k</tt> of them
+     */
+    int[] nearest(float[] composition, int k, int stateCode, String excludedName, DistanceMetric metric, PopulationRange range, float[] distances) {
+        return nearest(snapshot, composition, k, stateCode, excludedName, metric, range, distances);
+    }
+
+    // Answers a query under the metric from the snapshot alone.
+    private int[] nearest(Snapshot current, float[] composition, int k, int stateCode, String excludedName, DistanceMetric metric, PopulationRange range, float[] distances) {
+        if (metric == DistanceMetric.EUCLIDEAN) {
+            int[] rows = nearest(current, composition, k, stateCode, excludedName, range, distances);
+            for (int i = 0; distances != null && i < rows.length; i++) {
+                distances[i] = metric.fromSquaredEuclidean(distances[i]);
+            }
+            return rows;
+        }
+        if (current == null || stateCode >= current.tree.getPartitionCount()) {
+            return new int[0];
+        }
+        int lo = stateCode < 0 ? 0 : current.tables.partitionStarts[stateCode];
+        int hi = stateCode < 0 ? current.size() : current.tables.partitionStarts[stateCode + 1];
+        TransformedTree transformed = current.transformedTrees.get(metric);
+        // Without a tree every row in the range is compared anyway, so the rows are read from the secondary index unless they are most of the rows or the scan would be parallel.
+        int limit = transformed != null ? GATHER_SIZE : pool.getParallelism() > 1 ? SUBTREE_SIZE : (hi - lo) / 2;
+        int[] candidates = range == null ? null : rowsInRange(current, range, stateCode, limit);
+        if (transformed == null) {
+            int[] order = DistanceKernel.byMagnitude(composition, 0, composition.length);
+            if (candidates == null) {
+                MetricScan scan = new MetricScan(current, composition, order, k, metric, excludedName, range, lo, hi);
+                return (hi - lo <= SUBTREE_SIZE ? scan.compute() : pool.invoke(scan)).drain(distances);
+            }
+            BoundedMaxHeap heap = new BoundedMaxHeap(k);
+            float[] point = new float[composition.length];
+            for (int row : candidates) {
+                System.arraycopy(current.tables.points, row * composition.length, point, 0, composition.length);
+                float distance = metric.distance(composition, point, order, heap.bound());
+                if (heap.accepts(row, distance) && (excludedName == null || !excludedName.equals(current.getName(row)))) {
+                    heap.offer(row, distance);
+                }
+            }
+            return heap.drain(distances);
+        }
+        float[] query = new float[composition.length];
+        metric.transform(composition, 0, query, 0, composition.length);
+        if (candidates != null) {
+            BoundedMaxHeap heap = new BoundedMaxHeap(k);
+            for (int row : candidates) {
+                float distance = transformed.tree.squaredDistance(query, transformed.treeRows[row]);
+                if (heap.accepts(row, distance) && (excludedName == null || !excludedName.equals(current.getName(row)))) {
+                    heap.offer(row, distance);
+                }
+            }
+            int[] found = heap.drain(distances);
+            for (int i = 0; distances != null && i < found.length; i++) {
+                distances[i] = metric.fromSquaredEuclidean(distances[i]);
+            }
+            return found;
+        }
+        KDTree.Filter filter = filter(current, excludedName, range, transformed.rows);
+        BoundedMaxHeap heap = new BoundedMaxHeap(k);
+        if (stateCode >= 0) {
+            transformed.tree.nearest(query, filter, stateCode, heap);
+        } else if (pool.getParallelism() > 1 && current.size() > SUBTREE_SIZE) {
+            transformed.tree.nearest(query, filter, heap, pool, SUBTREE_SIZE);
+        } else {
+            transformed.tree.nearest(query, filter, heap);
+        }
+        int[] found = heap.drain(distances);
+        for (int i = 0; i < found.length; i++) {
+            found[i] = transformed.rows[found[i]];
+            if (distances != null) {
+                distances[i] = metric.fromSquaredEuclidean(distances[i]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Receives the nearest rows found so far by a query which searches the
+     * partitions one after the other.
+     */
+    interface Progress {
+
+        /**
+         * Called when a partition has been searched and the nearest rows
+         * found so far have changed.
+         *
+         * @param rows the nearest rows found so far, from the nearest to the
+         * farthest
+         * @param distances the distance of every row under the metric of the
+         * query
+         */
+        void improved(int[] rows, float[] distances);
+    }
+
+    /**
+     * Returns the rows whose compositions are nearest to the specified one
+     * under the specified metric, among the rows whose total population is
+     * in the specified range, like <tt>nearest()</tt>, reporting the nearest
+     * rows found so far as the search proceeds. The partitions are searched
+     * one after the other, from the one whose bounding box is the nearest to
+     * the query, and the progress is told whenever a partition changed the
+     * nearest rows; partitions farther than the k-th row found are skipped
+     * when the metric has a current.tree. Large partitions are searched in parallel,
+     * their subtrees bounded by the rows found in earlier partitions. The
+     * first partitions hold most of the nearest rows, so a close result is
+     * reported after a small part of the search, and the rows returned are
+     * the same as those of <tt>nearest()</tt>. Queries restricted to a state,
+     * or whose rows are read from the secondary index, are not split and
+     * report nothing before returning.
+     *
+     * @param composition the composition of the query
+     * @param k the number of rows to return
+     * @param stateCode the dictionary code of the state the rows must be in,
+     * or -1 for any state
+     * @param excludedName place name of a row which must not be returned, or
+     * <tt>null</tt>
+     * @param metric the metric of the distances
+     * @param range the range of the total population of the rows, or
+     * <tt>null</tt> for any total
+     * @param distances receives the distance of every returned row under the
+     * metric, or <tt>null</tt>
+     * @param progress the progress receiving the nearest rows found so far
+     * @return the nearest rows, at most <tt>k</tt> of them
+     */
+    int[] nearest(float[] composition, int k, int stateCode, String excludedName, DistanceMetric metric, PopulationRange range, float[] distances, Progress progress) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return new int[0];
+        }
+        TransformedTree transformed = metric == DistanceMetric.EUCLIDEAN ? null : current.transformedTrees.get(metric);
+        boolean indexed = metric == DistanceMetric.EUCLIDEAN || transformed != null;
+        int limit = indexed ? GATHER_SIZE : pool.getParallelism() > 1 ? SUBTREE_SIZE : current.size() / 2;
+        if (stateCode >= 0 || (range != null && rowsInRange(current, range, -1, limit) != null)) {
+            return nearest(current, composition, k, stateCode, excludedName, metric, range, distances);
+        }
+        KDTree searched = transformed == null ? current.tree : transformed.tree;
+        float[] query = composition;
+        if (transformed != null) {
+            query = new float[composition.length];
+            metric.transform(composition, 0, query, 0, composition.length);
+        }
+        KDTree.Filter filter = filter(current, excludedName, range, transformed == null ? null : transformed.rows);
+        int[] order = indexed ? null : DistanceKernel.byMagnitude(composition, 0, composition.length);
+        BoundedMaxHeap heap = new BoundedMaxHeap(k);
+        float[] floors = new float[searched.getPartitionCount()];
+        int[] reported = new int[0];
+        for (int p : searched.partitionsByDistance(query, floors)) {
+            if (indexed) {
+                if (floors[p] > heap.bound()) {
+                    break;
+                }
+                if (pool.getParallelism() > 1 && current.tables.partitionStarts[p + 1] - current.tables.partitionStarts[p] > SUBTREE_SIZE) {
+                    searched.nearest(query, filter, p, heap, pool, SUBTREE_SIZE);
+                } else {
+                    searched.nearest(query, filter, p, heap);
+                }
+            } else {
+                int lo = current.tables.partitionStarts[p];
+                int hi = current.tables.partitionStarts[p + 1];
+                MetricScan scan = new MetricScan(current, composition, order, k, metric, excludedName, range, lo, hi);
+                heap.offerAll(hi - lo <= SUBTREE_SIZE ? scan.compute() : pool.invoke(scan));
+            }
+            float[] found = new float[k];
+            int[] rows = heap.sorted(found);
+            if (!Arrays.equals(rows, reported)) {
+                reported = rows;
+                progress.improved(toRows(rows, found, metric, transformed, indexed), found);
+            }
+        }
+        float[] found = new float[k];
+        int[] rows = toRows(heap.drain(found), found, metric, transformed, indexed);
+        if (distances != null) {
+            System.arraycopy(found, 0, distances, 0, rows.length);
+        }
+        return rows;
+    }
+
+    // Maps the rows found in a transformed tree to rows of the index, and converts squared euclidean distances to distances of the metric.
+    private static int[] toRows(int[] found, float[] distances, DistanceMetric metric, TransformedTree transformed, boolean indexed) {
+        int[] rows = found.clone();
+        for (int i = 0; i < rows.length; i++) {
+            if (transformed != null) {
+                rows[i] = transformed.rows[found[i]];
+            }
+            if (indexed) {
+                distances[i] = metric.fromSquaredEuclidean(distances[i]);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the rows whose compositions are within the specified distance
+     * of the specified one, among the rows whose total population is in the
+     * specified range, from the nearest to the farthest, rows at equal
+     * distances from the smallest. The tree is searched with the radius as
+     * its bound, or the rows in the range are read from the secondary index
+     * when they are few.
+     *
+     * @param composition the composition of the query
+     * @param radius the largest euclidean distance of a returned row
+     * @param excludedName place name of a row which must not be returned, or
+     * <tt>null</tt>
+     * @param range the range of the total population of the rows, or
+     * <tt>null</tt> for any total
+     * @return the rows found, their squared distances and the number of rows
+     * compared with the query
+     */
+    Matches within(float[] composition, float radius, String excludedName, PopulationRange range) {
+        Snapshot current = snapshot;
+        final Matches matches = new Matches();
+        matches.rows = new int[0];
+        matches.squaredDistances = new float[0];
+        if (current == null) {
+            return matches;
+        }
+        float squaredRadius = radius * radius;
+        KeyCollector found = new KeyCollector();
+        int[] candidates = range == null ? null : rowsInRange(current, range, -1, GATHER_SIZE);
+        if (candidates != null) {
+            for (int row : candidates) {
+                float distance = current.tree.squaredDistance(composition, row);
+                if (distance <= squaredRadius && (excludedName == null || !excludedName.equals(current.getName(row)))) {
+                    found.visit(row, distance);
+                }
+            }
+            matches.compared = candidates.length;
+        } else {
+            matches.compared = current.tree.within(composition, squaredRadius, filter(current, excludedName, range, null), found);
+        }
+        Arrays.sort(found.keys, 0, found.size);
+        matches.rows = new int[found.size];
+        matches.squaredDistances = new float[found.size];
+        for (int i = 0; i < found.size; i++) {
+            matches.rows[i] = (int) found.keys[i];
+            matches.squaredDistances[i] = Float.intBitsToFloat((int) (found.keys[i] >>> 32));
+        }
+        return matches;
+    }
+
+    // Collects rows as keys ordering them by distance then by row; the bits of a non-negative float order like the float.
+    private static class KeyCollector implements KDTree.Visitor {
+
+        long[] keys = new long[64];
+        int size;
+
+        @Override
+        public void visit(int row, float squaredDistance) {
+            if (size == keys.length) {
+                long[] grown = new long[size * 2];
+                System.arraycopy(keys, 0, grown, 0, size);
+                keys = grown;
+            }
+            keys[size++] = (long) Float.floatToIntBits(squaredDistance) << 32 | row;
+        }
+    }
+
+    // Accepts the tree rows, mapped to rows of the index unless the mapping is null, whose total is in the range and whose name is not excluded.
+    private static KDTree.Filter filter(final Snapshot current, final String excludedName, final PopulationRange range, final int[] rows) {
+        if (excludedName == null && range == null) {
+            return null;
+        }
+        return new KDTree.Filter() {
+            @Override
+            public boolean accept(int row) {
+                int indexRow = rows == null ? row : rows[row];
+                return (range == null || range.contains(current.tables.totals[indexRow])) && (excludedName == null || !excludedName.equals(current.getName(indexRow)));
+            }
+        };
+    }
+
+    // Returns the rows of a state, or of every state if the code is -1, whose total is in the range, read from the secondary index; or null if there are more of them than the limit.
+    private static int[] rowsInRange(Snapshot current, PopulationRange range, int stateCode, int limit) {
+        int first = stateCode < 0 ? 0 : stateCode;
+        int last = stateCode < 0 ? current.tree.getPartitionCount() : stateCode + 1;
+        int[] los = new int[last - first];
+        int[] his = new int[last - first];
+        int count = 0;
+        for (int p = first; p < last; p++) {
+            int lo = current.tables.partitionStarts[p];
+            int hi = current.tables.partitionStarts[p + 1];
+            los[p - first] = firstAtLeast(current, range.getMinimum(), lo, hi);
+            his[p - first] = firstAtLeast(current, range.getMaximum() + 1L, los[p - first], hi);
+            count += his[p - first] - los[p - first];
+            if (count > limit) {
+                return null;
+            }
+        }
+        int[] rows = new int[count];
+        count = 0;
+        for (int p = 0; p < los.length; p++) {
+            System.arraycopy(current.rowsByTotal, los[p], rows, count, his[p] - los[p]);
+            count += his[p] - los[p];
+        }
+        return rows;
+    }
+
+    // Returns the first position of a partition of the secondary index whose total is at least the value.
+    private static int firstAtLeast(Snapshot current, long value, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (current.sortedTotals[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Finds the nearest other row of every row, nationally and within the
+     * state of the row, under the euclidean distance. Rows at equal
+     * distances are resolved to the smallest row.
+     *
+     * @param nationalRows receives the nearest row of every row, or -1
+     * @param nationalSquaredDistances receives the squared distance of the
+     * nearest row of every row
+     * @param stateRows receives the nearest row in the same state of every
+     * row, or -1 if the row is alone in its state
+     * @param stateSquaredDistances receives the squared distance of the
+     * nearest row in the same state of every row
+     */
+    void joinNearest(int[] nationalRows, float[] nationalSquaredDistances, int[] stateRows, float[] stateSquaredDistances) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        float[] columns = DistanceKernel.toColumns(current.tables.points, PopulationCodec.COMPOSITION_SIZE);
+        final List<JoinTask> tasks = new ArrayList<>();
+        tasks.add(new JoinTask(new Tiles(current, columns, 0, current.size()), 0, current.size(), nationalRows, nationalSquaredDistances));
+        for (int p = 0; p < current.tree.getPartitionCount(); p++) {
+            int lo = current.tables.partitionStarts[p];
+            int hi = current.tables.partitionStarts[p + 1];
+            if (lo < hi) {
+                tasks.add(new JoinTask(new Tiles(current, columns, lo, hi), lo, hi, stateRows, stateSquaredDistances));
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Finds the <tt>k</tt> nearest other rows of every row of a snapshot of
+     * the index, nationally and within the state of the row, under the
+     * euclidean distance, from the nearest to the farthest, rows at equal
+     * distances from the smallest. The rows are searched in parallel on the
+     * specified pool rather than the pool of the index, so that the search
+     * does not delay queries, through trees of their own, so the index may be
+     * rebuilt meanwhile.
+     *
+     * @param searched the snapshot whose rows are searched
+     * @param k the number of rows found for every row
+     * @param nationalRows receives the <tt>k</tt> nearest rows of every row,
+     * row after row, followed by -1 if there are fewer
+     * @param stateRows receives the <tt>k</tt> nearest rows in the same state
+     * of every row, row after row, followed by -1 if there are fewer
+     * @param rowsByName receives the rows sorted by place name
+     * @param searchPool the pool running the searches
+     */
+    static void nearestOfEveryRow(Snapshot searched, int k, int[] nationalRows, int[] stateRows, int[] rowsByName, ForkJoinPool searchPool) {
+        Tables tables = searched.tables;
+        KDTree searchedTree = new KDTree(PopulationCodec.COMPOSITION_SIZE, tables.points, tables.splitDimensions, tables.partitionStarts);
+        final List<NeighborsTask> tasks = new ArrayList<>();
+        for (int p = 0; p < searchedTree.getPartitionCount(); p++) {
+            if (tables.partitionStarts[p] < tables.partitionStarts[p + 1]) {
+                tasks.add(new NeighborsTask(searchedTree, k, p, tables.partitionStarts[p], tables.partitionStarts[p + 1], nationalRows, stateRows));
+            }
+        }
+        searchPool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        final String[] names = new String[searched.size()];
+        Integer[] rows = new Integer[names.length];
+        for (int row = 0; row < names.length; row++) {
+            names[row] = searched.getName(row);
+            rows[row] = row;
+        }
+        Arrays.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer row1, Integer row2) {
+                return names[row1].compareTo(names[row2]);
+            }
+        });
+        for (int i = 0; i < rows.length; i++) {
+            rowsByName[i] = rows[i];
+        }
+    }
+
+    // Searches the nearest rows of a range of rows of one partition, splitting the range into blocks searched in parallel.
+    private static class NeighborsTask extends RecursiveAction {
+
+        private final KDTree tree;
+        private final int k;
+        private final int partition;
+        private final int lo;
+        private final int hi;
+        private final int[] nationalRows;
+        private final int[] stateRows;
+
+        NeighborsTask(KDTree tree, int k, int partition, int lo, int hi, int[] nationalRows, int[] stateRows) {
+            this.tree = tree;
+            this.k = k;
+            this.partition = partition;
+            this.lo = lo;
+            this.hi = hi;
+            this.nationalRows = nationalRows;
+            this.stateRows = stateRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > QUERY_TILE) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new NeighborsTask(tree, k, partition, lo, mid, nationalRows, stateRows), new NeighborsTask(tree, k, partition, mid, hi, nationalRows, stateRows));
+                return;
+            }
+            int dimensions = PopulationCodec.COMPOSITION_SIZE;
+            float[] query = new float[dimensions];
+            for (int row = lo; row < hi; row++) {
+                System.arraycopy(tree.getPoints(), row * dimensions, query, 0, dimensions);
+                final int self = row;
+                KDTree.Filter filter = new KDTree.Filter() {
+                    @Override
+                    public boolean accept(int candidate) {
+                        return candidate != self;
+                    }
+                };
+                BoundedMaxHeap heap = new BoundedMaxHeap(k);
+                tree.nearest(query, filter, heap);
+                copy(heap.drain(null), nationalRows, row * k);
+                heap = new BoundedMaxHeap(k);
+                tree.nearest(query, filter, partition, heap);
+                copy(heap.drain(null), stateRows, row * k);
+            }
+        }
+
+        private void copy(int[] found, int[] rows, int offset) {
+            System.arraycopy(found, 0, rows, offset, found.length);
+            Arrays.fill(rows, offset + found.length, offset + k, -1);
+        }
+    }
+
+    // The candidate rows of a join, cut into tiles with the bounding box of every tile.
+    private static class Tiles {
+
+        final Snapshot current;
+        final float[] columns;
+        final int lo;
+        final int hi;
+        final float[] lowerBounds;
+        final float[] upperBounds;
+
+        Tiles(Snapshot current, float[] columns, int lo, int hi) {
+            this.current = current;
+            this.columns = columns;
+            this.lo = lo;
+            this.hi = hi;
+            int count = (hi - lo + CANDIDATE_TILE - 1) / CANDIDATE_TILE;
+            lowerBounds = new float[count * PopulationCodec.COMPOSITION_SIZE];
+            upperBounds = new float[count * PopulationCodec.COMPOSITION_SIZE];
+            for (int t = 0; t < count; t++) {
+                bounds(current, lo + t * CANDIDATE_TILE, Math.min(hi, lo + (t + 1) * CANDIDATE_TILE), lowerBounds, upperBounds, t * PopulationCodec.COMPOSITION_SIZE);
+            }
+        }
+
+        int count() {
+            return lowerBounds.length / PopulationCodec.COMPOSITION_SIZE;
+        }
+    }
+
+    // Stores the lowest and highest coordinates of a range of rows.
+    private static void bounds(Snapshot current, int lo, int hi, float[] lowerBounds, float[] upperBounds, int offset) {
+        int dimensions = PopulationCodec.COMPOSITION_SIZE;
+        for (int d = 0; d < dimensions; d++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int row = lo; row < hi; row++) {
+                min = Math.min(min, current.tables.points[row * dimensions + d]);
+                max = Math.max(max, current.tables.points[row * dimensions + d]);
+            }
+            lowerBounds[offset + d] = min;
+            upperBounds[offset + d] = max;
+        }
+    }
+
+    // Joins a range of query rows with the candidate tiles, splitting the query rows into tiles joined in parallel. Since rows are in tree order, the rows of a tile are close to each other, and candidate tiles are visited from the nearest until their boxes are farther than every nearest row found.
+    private static class JoinTask extends RecursiveAction {
+
+        private final Tiles tiles;
+        private final int queryLo;
+        private final int queryHi;
+        private final int[] nearestRows;
+        private final float[] squaredDistances;
+
+        JoinTask(Tiles tiles, int queryLo, int queryHi, int[] nearestRows, float[] squaredDistances) {
+            this.tiles = tiles;
+            this.queryLo = queryLo;
+            this.queryHi = queryHi;
+            this.nearestRows = nearestRows;
+            this.squaredDistances = squaredDistances;
+        }
+
+        @Override
+        protected void compute() {
+            if (queryHi - queryLo > QUERY_TILE) {
+                int mid = (queryLo + queryHi) >>> 1;
+                invokeAll(new JoinTask(tiles, queryLo, mid, nearestRows, squaredDistances), new JoinTask(tiles, mid, queryHi, nearestRows, squaredDistances));
+                return;
+            }
+            Snapshot current = tiles.current;
+            int dimensions = PopulationCodec.COMPOSITION_SIZE;
+            float[][] queries = new float[queryHi - queryLo][dimensions];
+            for (int q = queryLo; q < queryHi; q++) {
+                System.arraycopy(current.tables.points, q * dimensions, queries[q - queryLo], 0, dimensions);
+                nearestRows[q] = -1;
+                squaredDistances[q] = Float.POSITIVE_INFINITY;
+            }
+            float[] lower = new float[dimensions];
+            float[] upper = new float[dimensions];
+            bounds(current, queryLo, queryHi, lower, upper, 0);
+            // Order the candidate tiles by the distance between their box and the box of the query rows.
+            int count = tiles.count();
+            float[] gaps = new float[count];
+            Integer[] order = new Integer[count];
+            for (int t = 0; t < count; t++) {
+                float gap = 0;
+                for (int d = 0; d < dimensions; d++) {
+                    float diff = Math.max(0, Math.max(tiles.lowerBounds[t * dimensions + d] - upper[d], lower[d] - tiles.upperBounds[t * dimensions + d]));
+                    gap += diff * diff;
+                }
+                gaps[t] = gap;
+                order[t] = t;
+            }
+            final float[] sortedGaps = gaps;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer t1, Integer t2) {
+                    return Float.compare(sortedGaps[t1], sortedGaps[t2]);
+                }
+            });
+            float[] distances = new float[CANDIDATE_TILE];
+            float worst = Float.POSITIVE_INFINITY;
+            for (int t : order) {
+                if (gaps[t] > worst) {
+                    break;
+                }
+                int from = tiles.lo + t * CANDIDATE_TILE;
+                int to = Math.min(tiles.hi, from + CANDIDATE_TILE);
+                worst = 0;
+                for (int q = queryLo; q < queryHi; q++) {
+                    DistanceKernel.squaredDistances(queries[q - queryLo], tiles.columns, current.stride, from, to, distances);
+                    int nearest = nearestRows[q];
+                    float best = squaredDistances[q];
+                    for (int i = 0; i < to - from; i++) {
+                        float distance = distances[i];
+                        if ((distance < best || (distance == best && from + i < nearest)) && from + i != q) {
+                            best = distance;
+                            nearest = from + i;
+                        }
+                    }
+                    nearestRows[q] = nearest;
+                    squaredDistances[q] = best;
+                    worst = Math.max(worst, best);
+                }
+            }
+        }
+    }
+
+    // Computes the distance of every row of a range under a metric, splitting large ranges across the pool.
+    private static class MetricScan extends RecursiveTask<BoundedMaxHeap> {
+
+        private final Snapshot current;
+        private final float[] composition;
+        private final int[] order;
+        private final int k;
+        private final DistanceMetric metric;
+        private final String excludedName;
+        private final PopulationRange range;
+        private final int lo;
+        private final int hi;
+
+        MetricScan(Snapshot current, float[] composition, int[] order, int k, DistanceMetric metric, String excludedName, PopulationRange range, int lo, int hi) {
+            this.current = current;
+            this.composition = composition;
+            this.order = order;
+            this.k = k;
+            this.metric = metric;
+            this.excludedName = excludedName;
+            this.range = range;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected BoundedMaxHeap compute() {
+            BoundedMaxHeap heap = new BoundedMaxHeap(k);
+            if (hi - lo <= SUBTREE_SIZE) {
+                int dimensions = PopulationCodec.COMPOSITION_SIZE;
+                float[] point = new float[dimensions];
+                for (int row = lo; row < hi; row++) {
+                    if (range != null && !range.contains(current.tables.totals[row])) {
+                        continue;
+                    }
+                    System.arraycopy(current.tables.points, row * dimensions, point, 0, dimensions);
+                    float distance = metric.distance(composition, point, order, heap.bound());
+                    if (heap.accepts(row, distance) && (excludedName == null || !excludedName.equals(current.getName(row)))) {
+                        heap.offer(row, distance);
+                    }
+                }
+                return heap;
+            }
+            int mid = (lo + hi) >>> 1;
+            MetricScan right = new MetricScan(current, composition, order, k, metric, excludedName, range, mid, hi);
+            right.fork();
+            heap.offerAll(new MetricScan(current, composition, order, k, metric, excludedName, range, lo, mid).compute());
+            heap.offerAll(right.join());
+            return heap;
+        }
+    }
+
+    // Collects the nearest rows of a range from its quantized columns: the rows nearest in quantization steps bound the k-th exact distance, and every row within that bound plus the quantization error is reranked exactly.
+    private static void scan(Snapshot current, float[] composition, int lo, int hi, KDTree.Filter filter, BoundedMaxHeap heap) {
+        int dimensions = PopulationCodec.COMPOSITION_SIZE;
+        byte[] query = DistanceKernel.quantize(composition, QUANTIZATION_SCALE);
+        int[] distances = new int[hi - lo];
+        DistanceKernel.squaredDistances(query, current.quantized, current.stride, lo, hi, distances);
+        BoundedMaxHeap candidates = new BoundedMaxHeap(heap.capacity());
+        for (int i = 0; i < distances.length; i++) {
+            if (candidates.accepts(lo + i, distances[i]) && (filter == null || filter.accept(lo + i))) {
+                candidates.offer(lo + i, distances[i]);
+            }
+        }
+        double limit = Double.POSITIVE_INFINITY;
+        if (candidates.size() == heap.capacity()) {
+            float bound = 0;
+            for (int row : candidates.drain(null)) {
+                bound = Math.max(bound, current.tree.squaredDistance(composition, row));
+            }
+            // The rounding of the query is known exactly; every stored coordinate is off by at most half a step.
+            double queryError = 0;
+            for (int d = 0; d < dimensions; d++) {
+                double error = (query[d] & 0xff) - composition[d] * (double) QUANTIZATION_SCALE;
+                queryError += error * error;
+            }
+            double steps = (Math.sqrt(bound) * QUANTIZATION_SCALE + Math.sqrt(queryError) + Math.sqrt(dimensions) / 2) * 1.0001;
+            limit = steps * steps;
+        }
+        for (int i = 0; i < distances.length; i++) {
+            if (distances[i] <= limit && (filter == null || filter.accept(lo + i))) {
+                heap.offer(lo + i, current.tree.squaredDistance(composition, lo + i));
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.DistanceKernel;
+import java.util.Arrays;
+
+/**
+ * Measure of the distance between two racial compositions, as returned by
+ * <tt>Population.getComposition()</tt>. Some measures are the euclidean
+ * distance between transformed compositions, or a monotonic function of it;
+ * those are <i>transformable</i>, and nearest neighbour queries under them
+ * are answered by the same kernels and trees as euclidean ones, over
+ * compositions transformed once when the data is loaded. Queries under other
+ * measures scan every composition. Scans compute distances against the
+ * distance of the k-th nearest composition found so far; measures which are
+ * a sum of costly terms, one per share, stop as soon as the terms added
+ * exceed it, which spares most of the terms of far compositions. Weighted
+ * metrics with the same weights are equal, so that they identify the same
+ * queries; other metrics are only equal to themselves.
+ *
+ * @author Shakhar Dasgupta
+ */
+public abstract class DistanceMetric {
+
+    /**
+     * The euclidean distance between compositions, in percentage points.
+     */
+    public static final DistanceMetric EUCLIDEAN = new DistanceMetric("Euclidean") {
+        @Override
+        public float distance(float[] a, float[] b) {
+            float sum = 0;
+            for (int i = 0; i < a.length; i++) {
+                float diff = a[i] - b[i];
+                sum += diff * diff;
+            }
+            return (float) Math.sqrt(sum);
+        }
+
+        @Override
+        public boolean isTransformable() {
+            return true;
+        }
+
+        @Override
+        public void transform(float[] composition, int offset, float[] transformed, int transformedOffset, int dimensions) {
+            System.arraycopy(composition, offset, transformed, transformedOffset, dimensions);
+        }
+
+        @Override
+        public float fromSquaredEuclidean(float squaredDistance) {
+            return (float) Math.sqrt(squaredDistance);
+        }
+    };
+
+    /**
+     * The Hellinger distance between compositions taken as probability
+     * distributions, between 0 and 1. It is the euclidean distance between
+     * the square roots of the shares, divided by the square root of 2.
+     */
+    public static final DistanceMetric HELLINGER = new DistanceMetric("Hellinger") {
+        @Override
+        public float distance(float[] a, float[] b) {
+            float sum = 0;
+            for (int i = 0; i < a.length; i++) {
+                float diff = (float) (Math.sqrt(a[i] / 200) - Math.sqrt(b[i] / 200));
+                sum += diff * diff;
+            }
+            return (float) Math.sqrt(sum);
+        }
+
+        @Override
+        public boolean isTransformable() {
+            return true;
+        }
+
+        @Override
+        public void transform(float[] composition, int offset, float[] transformed, int transformedOffset, int dimensions) {
+            for (int i = 0; i < dimensions; i++) {
+                transformed[transformedOffset + i] = (float) Math.sqrt(composition[offset + i] / 200);
+            }
+        }
+
+        @Override
+        public float fromSquaredEuclidean(float squaredDistance) {
+            return (float) Math.sqrt(squaredDistance);
+        }
+    };
+
+    /**
+     * The cosine distance between compositions, one minus the cosine of the
+     * angle between them, between 0 and 1 for compositions. Over compositions
+     * scaled to unit length it is half the squared euclidean distance.
+     */
+    public static final DistanceMetric COSINE = new DistanceMetric("Cosine") {
+        @Override
+        public float distance(float[] a, float[] b) {
+            double dot = 0;
+            double normA = 0;
+            double normB = 0;
+            for (int i = 0; i < a.length; i++) {
+                dot += a[i] * b[i];
+                normA += a[i] * a[i];
+                normB += b[i] * b[i];
+            }
+            return (float) (1 - dot / Math.sqrt(normA * normB));
+        }
+
+        @Override
+        public boolean isTransformable() {
+            return true;
+        }
+
+        @Override
+        public void transform(float[] composition, int offset, float[] transformed, int transformedOffset, int dimensions) {
+            double norm = 0;
+            for (int i = 0; i < dimensions; i++) {
+                norm += composition[offset + i] * composition[offset + i];
+            }
+            norm = Math.sqrt(norm);
+            for (int i = 0; i < dimensions; i++) {
+                transformed[transformedOffset + i] = (float) (composition[offset + i] / norm);
+            }
+        }
+
+        @Override
+        public float fromSquaredEuclidean(float squaredDistance) {
+            return squaredDistance / 2;
+        }
+    };
+
+    /**
+     * The Jensen-Shannon distance between compositions taken as probability
+     * distributions, the square root of their Jensen-Shannon divergence in
+     * bits, between 0 and 1. It is not transformable, and its distances are
+     * abandoned once their divergence exceeds the bound.
+     */
+    public static final DistanceMetric JENSEN_SHANNON = new DistanceMetric("Jensen-Shannon") {
+        @Override
+        public float distance(float[] a, float[] b) {
+            double divergence = 0;
+            for (int i = 0; i < a.length; i++) {
+                double p = a[i] / 100;
+                double q = b[i] / 100;
+                double m = (p + q) / 2;
+                if (p > 0) {
+                    divergence += p * Math.log(p / m);
+                }
+                if (q > 0) {
+                    divergence += q * Math.log(q / m);
+                }
+            }
+            return (float) Math.sqrt(Math.max(0, divergence / (2 * Math.log(2))));
+        }
+
+        @Override
+        public float distance(float[] a, float[] b, int[] order, float bound) {
+            // The term of every share is not negative, by the log sum inequality.
+            double limit = (double) bound * bound * (2 * Math.log(2)) * DistanceKernel.ABANDON_SLACK;
+            double divergence = 0;
+            for (int i : order) {
+                double p = a[i] / 100;
+                double q = b[i] / 100;
+                double m = (p + q) / 2;
+                if (p > 0) {
+                    divergence += p * Math.log(p / m);
+                }
+                if (q > 0) {
+                    divergence += q * Math.log(q / m);
+                }
+                if (divergence > limit) {
+                    return (float) Math.sqrt(divergence / (2 * Math.log(2)));
+                }
+            }
+            return distance(a, b);
+        }
+    };
+
+    private final String name;
+    private final float[] weights;
+
+    /**
+     * Constructs a <tt>DistanceMetric</tt> with the specified name.
+     *
+     * @param name the name of the metric shown to users
+     */
+    protected DistanceMetric(String name) {
+        this(name, null);
+    }
+
+    // Constructs a weighted metric, equal to the metrics of the same class with the same name and weights.
+    private DistanceMetric(String name, float[] weights) {
+        this.name = name;
+        this.weights = weights;
+    }
+
+    /**
+     * Returns the weighted L1 distance between compositions, the sum of the
+     * differences of every share multiplied by its weight, in percentage
+     * points. It is not transformable.
+     *
+     * @param weights the weight of every share, in the order of
+     * <tt>Population.getComposition()</tt>
+     * @return the weighted L1 distance
+     */
+    public static DistanceMetric weightedL1(float... weights) {
+        final float[] w = weights.clone();
+        return new DistanceMetric("Weighted L1", w) {
+            @Override
+            public float distance(float[] a, float[] b) {
+                float sum = 0;
+                for (int i = 0; i < a.length; i++) {
+                    sum += w[i] * Math.abs(a[i] - b[i]);
+                }
+                return sum;
+            }
+        };
+    }
+
+    /**
+     * Returns the weighted euclidean distance between compositions, the
+     * square root of the sum of the squared differences of every share
+     * multiplied by its weight, in percentage points. It is transformable,
+     * by scaling every share by the square root of its weight, but has no
+     * index of its own, so queries under it scan the compositions.
+     *
+     * @param weights the weight of every share, in the order of
+     * <tt>Population.getComposition()</tt>, none of them negative
+     * @return the weighted euclidean distance
+     */
+    public static DistanceMetric weightedEuclidean(float... weights) {
+        final float[] w = weights.clone();
+        return new DistanceMetric("Weighted Euclidean", w) {
+            @Override
+            public float distance(float[] a, float[] b) {
+                float sum = 0;
+                for (int i = 0; i < a.length; i++) {
+                    float diff = a[i] - b[i];
+                    sum += w[i] * diff * diff;
+                }
+                return (float) Math.sqrt(sum);
+            }
+
+            @Override
+            public boolean isTransformable() {
+                return true;
+            }
+
+            @Override
+            public void transform(float[] composition, int offset, float[] transformed, int transformedOffset, int dimensions) {
+                for (int i = 0; i < dimensions; i++) {
+                    transformed[transformedOffset + i] = (float) Math.sqrt(w[i]) * composition[offset + i];
+                }
+            }
+
+            @Override
+            public float fromSquaredEuclidean(float squaredDistance) {
+                return (float) Math.sqrt(squaredDistance);
+            }
+        };
+    }
+
+    /**
+     * Returns the distance between two compositions.
+     *
+     * @param a the first composition
+     * @param b the second composition
+     * @return the distance between the compositions
+     */
+    public abstract float distance(float[] a, float[] b);
+
+    /**
+     * Returns the distance between two compositions if it is at most the
+     * specified bound. Metrics which are a sum of costly terms, one per
+     * share, may add the terms in the specified order and stop as soon as the
+     * sum exceeds the bound; by default the whole distance is computed, which
+     * is faster for cheap terms.
+     *
+     * @param a the first composition
+     * @param b the second composition
+     * @param order the shares in the order their terms are added, as
+     * returned by <tt>DistanceKernel.byMagnitude()</tt>
+     * @param bound the largest distance of interest
+     * @return the distance between the compositions if it is at most the
+     * bound, otherwise a value greater than the bound
+     */
+    public float distance(float[] a, float[] b, int[] order, float bound) {
+        return distance(a, b);
+    }
+
+    /**
+     * Returns <tt>true</tt> if this metric is a monotonic function of the
+     * euclidean distance between transformed compositions.
+     *
+     * @return <tt>true</tt> if this metric is transformable
+     */
+    public boolean isTransformable() {
+        return false;
+    }
+
+    /**
+     * Transforms a composition into the space where this metric is a
+     * function of the euclidean distance.
+     *
+     * @param composition the compositions
+     * @param offset index of the first share of the composition
+     * @param transformed receives the transformed composition
+     * @param transformedOffset index at which the transformed composition is
+     * stored
+     * @param dimensions the number of shares of a composition
+     * @throws UnsupportedOperationException if this metric is not
+     * transformable
+     */
+    public void transform(float[] composition, int offset, float[] transformed, int transformedOffset, int dimensions) {
+        throw new UnsupportedOperationException(name + " is not transformable");
+    }
+
+    /**
+     * Converts the squared euclidean distance between two transformed
+     * compositions into the distance of this metric.
+     *
+     * @param squaredDistance the squared euclidean distance between the
+     * transformed compositions
+     * @return the distance of this metric
+     * @throws UnsupportedOperationException if this metric is not
+     * transformable
+     */
+    public float fromSquaredEuclidean(float squaredDistance) {
+        throw new UnsupportedOperationException(name + " is not transformable");
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified object is this metric, or a
+     * weighted metric of the same kind with the same weights.
+     *
+     * @param o the object to compare with this metric
+     * @return <tt>true</tt> if the object is equal to this metric
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (weights == null || o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        DistanceMetric metric = (DistanceMetric) o;
+        return name.equals(metric.name) && Arrays.equals(weights, metric.weights);
+    }
+
+    @Override
+    public int hashCode() {
+        return weights == null ? System.identityHashCode(this) : 31 * name.hashCode() + Arrays.hashCode(weights);
+    }
+
+    /**
+     * Returns the name of this metric.
+     *
+     * @return the name of this metric
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.Disk;
+import com.shakhar.util.MyHashMap;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tables of the <tt>State</tt>s and county names referenced by stored
+ * populations. Stored records hold the small integer code of their state and
+ * county instead of the state and county themselves, and decoding a code
+ * always yields the same shared instance. The tables are written once to
+ * their own file rather than once per record.
+ *
+ * @author Shakhar Dasgupta
+ */
+class GeographyDictionary {
+
+    private static class Tables implements Serializable {
+
+        final ArrayList<State> states = new ArrayList<>();
+        final ArrayList<String> counties = new ArrayList<>();
+    }
+
+    private final Disk<Tables> disk;
+    private final Tables tables;
+    private final MyHashMap<String, Integer> stateCodes;
+    private final MyHashMap<String, Integer> countyCodes;
+    private boolean modified;
+
+    /**
+     * Opens the dictionary stored in the files with the specified name,
+     * creating an empty one if there is none.
+     *
+     * @param name name of the files backing the dictionary
+     * @throws IOException if the files cannot be opened
+     */
+    GeographyDictionary(String name) throws IOException {
+        disk = new Disk<>(name + ".index", name + ".objects", 0);
+        Tables stored = disk.isEmpty() ? null : disk.readElement(0);
+        tables = stored == null ? new Tables() : stored;
+        stateCodes = new MyHashMap<>();
+        countyCodes = new MyHashMap<>();
+        for (int i = 0; i < tables.states.size(); i++) {
+            stateCodes.put(tables.states.get(i).getFipsCode(), i);
+        }
+        for (int i = 0; i < tables.counties.size(); i++) {
+            countyCodes.put(tables.counties.get(i), i);
+        }
+    }
+
+    /**
+     * Returns the code of the specified <tt>State</tt>, adding it to the
+     * dictionary if needed.
+     *
+     * @param state the <tt>State</tt> to be encoded
+     * @return the code of the <tt>State</tt>
+     */
+    int getStateCode(State state) {
+        Integer code = stateCodes.get(state.getFipsCode());
+        if (code == null) {
+            code = tables.states.size();
+            tables.states.add(state);
+            stateCodes.put(state.getFipsCode(), code);
+            modified = true;
+        }
+        return code;
+    }
+
+    /**
+     * Returns the <tt>State</tt> with the specified code.
+     *
+     * @param code the code of the <tt>State</tt>
+     * @return the <tt>State</tt> with the specified code
+     */
+    State getState(int code) {
+        return tables.states.get(code);
+    }
+
+    /**
+     * Returns the <tt>State</tt>s in the dictionary, indexed by their code.
+     *
+     * @return the <tt>State</tt>s in the dictionary
+     */
+    List<State> getStates() {
+        return tables.states;
+    }
+
+    /**
+     * Returns the code of the specified county name, adding it to the
+     * dictionary if needed.
+     *
+     * @param county the county name to be encoded
+     * @return the code of the county name
+     */
+    int getCountyCode(String county) {
+        Integer code = countyCodes.get(county);
+        if (code == null) {
+            code = tables.counties.size();
+            tables.counties.add(county);
+            countyCodes.put(county, code);
+            modified = true;
+        }
+        return code;
+    }
+
+    /**
+     * Returns the county name with the specified code.
+     *
+     * @param code the code of the county name
+     * @return the county name with the specified code
+     */
+    String getCounty(int code) {
+        return tables.counties.get(code);
+    }
+
+    /**
+     * Writes the dictionary to its files if entries were added since it was
+     * last written.
+     */
+    void save() {
+        if (modified) {
+            disk.writeElement(0, tables);
+            modified = false;
+        }
+    }
+}
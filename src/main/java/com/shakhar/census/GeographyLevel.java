@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+/**
+ * Geographic summary level at which the Census API reports populations.
+ *
+ * @author Shakhar Dasgupta
+ */
+public enum GeographyLevel {
+
+    /**
+     * Incorporated places and census designated places, about 29 thousand
+     * nationally.
+     */
+    PLACE("Places", "place:*", "", new String[]{"state", "place"}),
+    /**
+     * Census tracts, about 73 thousand nationally.
+     */
+    TRACT("Census Tracts", "tract:*", "county:*", new String[]{"state", "county", "tract"}),
+    /**
+     * Block groups, about 220 thousand nationally.
+     */
+    BLOCK_GROUP("Block Groups", "block%20group:*", "county:*", new String[]{"state", "county", "tract", "block group"});
+
+    private final String displayName;
+    private final String forClause;
+    private final String inClause;
+    private final String[] geographyColumns;
+
+    private GeographyLevel(String displayName, String forClause, String inClause, String[] geographyColumns) {
+        this.displayName = displayName;
+        this.forClause = forClause;
+        this.inClause = inClause;
+        this.geographyColumns = geographyColumns;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the Census API has to be queried one state at a
+     * time at this level.
+     *
+     * @return <tt>true</tt> if the Census API has to be queried one state at a
+     * time at this level
+     */
+    public boolean isQueriedByState() {
+        return !inClause.isEmpty();
+    }
+
+    /**
+     * Returns the value of the <tt>for</tt> predicate of a Census API query at
+     * this level.
+     *
+     * @return the value of the <tt>for</tt> predicate
+     */
+    public String getForClause() {
+        return forClause;
+    }
+
+    /**
+     * Returns the value of the <tt>in</tt> predicate, beneath the state, of a
+     * Census API query at this level.
+     *
+     * @return the value of the <tt>in</tt> predicate beneath the state, or an
+     * empty string if the level is queried nationally
+     */
+    public String getInClause() {
+        return inClause;
+    }
+
+    /**
+     * Returns the names of the columns in a Census API response which identify
+     * a geography at this level, from the state downwards.
+     *
+     * @return the names of the geography columns
+     */
+    public String[] getGeographyColumns() {
+        return geographyColumns.clone();
+    }
+
+    /**
+     * Returns the name of this level shown to users.
+     *
+     * @return the name of this level shown to users
+     */
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
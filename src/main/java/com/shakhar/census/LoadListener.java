@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+/**
+ * Receives the progress of loading <tt>CensusData</tt>. The listener is
+ * called on the thread constructing the <tt>CensusData</tt>.
+ *
+ * @author Shakhar Dasgupta
+ */
+public interface LoadListener {
+
+    /**
+     * Called when a step of loading has been completed.
+     *
+     * @param phase the current phase of loading
+     * @param workDone the number of steps of the phase which are done
+     * @param max the number of steps of the phase
+     */
+    void progress(LoadPhase phase, long workDone, long max);
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+/**
+ * Phase of loading <tt>CensusData</tt>, in the order in which the phases
+ * happen.
+ *
+ * @author Shakhar Dasgupta
+ */
+public enum LoadPhase {
+
+    /**
+     * Downloading the reference files and Census API responses which are not
+     * cached yet.
+     */
+    FETCH("Downloading census data"),
+    /**
+     * Parsing the downloaded sources into populations.
+     */
+    PARSE("Reading census data"),
+    /**
+     * Writing the populations to their B-tree.
+     */
+    INDEX("Building index"),
+    /**
+     * The data is ready to be queried.
+     */
+    READY("Ready");
+
+    private final String description;
+
+    private LoadPhase(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Returns the description of this phase shown to users.
+     *
+     * @return the description of this phase shown to users
+     */
+    @Override
+    public String toString() {
+        return description;
+    }
+}
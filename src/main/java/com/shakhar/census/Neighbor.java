@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+/**
+ * <tt>Population</tt> found by a similarity query, together with its
+ * distance from the <tt>Population</tt> of the query.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class Neighbor {
+
+    private final Population population;
+    private final float distance;
+
+    /**
+     * Constructs a <tt>Neighbor</tt> from the specified <tt>population</tt>
+     * and <tt>distance</tt>.
+     *
+     * @param population the <tt>Population</tt> found
+     * @param distance the distance of the <tt>Population</tt> from the
+     * <tt>Population</tt> of the query
+     */
+    public Neighbor(Population population, float distance) {
+        this.population = population;
+        this.distance = distance;
+    }
+
+    /**
+     * Returns the <tt>Population</tt> found.
+     *
+     * @return the <tt>Population</tt> found
+     */
+    public Population getPopulation() {
+        return population;
+    }
+
+    /**
+     * Returns the distance between the racial compositions of the
+     * <tt>Population</tt> found and the <tt>Population</tt> of the query,
+     * under the metric of the query; the euclidean distance, in percentage
+     * points, unless another <tt>DistanceMetric</tt> was requested.
+     *
+     * @return the distance from the <tt>Population</tt> of the query
+     */
+    public float getDistance() {
+        return distance;
+    }
+
+    /**
+     * Returns the <tt>String</tt> representation of this <tt>Neighbor</tt>,
+     * which is its place followed by its distance.
+     *
+     * @return the <tt>String</tt> representation of this <tt>Neighbor</tt>
+     */
+    @Override
+    public String toString() {
+        return String.format("%s (%.2f)", population, distance);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.Codec;
+import com.shakhar.util.Disk;
+import com.shakhar.util.DistanceKernel;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Precomputed k-nearest-neighbour graph over the rows of a
+ * <tt>CompositionIndex</tt>: the <tt>k</tt> nearest other rows of every row
+ * under the euclidean distance, nationally and within the state of the row,
+ * along with the rows sorted by place name to find the row of a place. A
+ * query for at most <tt>k</tt> places similar to a place of the index is a
+ * lookup. The graph is written to its own file with the fingerprint of the
+ * rows it was built from, and a graph built from other rows is ignored.
+ *
+ * @author Shakhar Dasgupta
+ */
+class NeighborGraph {
+
+    private static class Tables implements Serializable {
+
+        int k;
+        int fingerprint;
+        int[] rowsByName;
+        int[] nationalRows;
+        int[] stateRows;
+    }
+
+    // Writes the tables as length prefixed arrays of primitives.
+    private static class TablesCodec implements Codec<Tables> {
+
+        @Override
+        public void write(DataOutputStream out, Tables tables) throws IOException {
+            out.writeInt(tables.k);
+            out.writeInt(tables.fingerprint);
+            writeInts(out, tables.rowsByName);
+            writeInts(out, tables.nationalRows);
+            writeInts(out, tables.stateRows);
+        }
+
+        @Override
+        public Tables read(DataInputStream in) throws IOException {
+            Tables tables = new Tables();
+            tables.k = in.readInt();
+            tables.fingerprint = in.readInt();
+            tables.rowsByName = readInts(in);
+            tables.nationalRows = readInts(in);
+            tables.stateRows = readInts(in);
+            return tables;
+        }
+
+        private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+            out.writeInt(values.length);
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        private static int[] readInts(DataInputStream in) throws IOException {
+            int[] values = new int[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readInt();
+            }
+            return values;
+        }
+    }
+
+    private final Disk<Tables> disk;
+    private final CompositionIndex index;
+    private volatile Tables tables;
+
+    /**
+     * Opens the graph stored in the files with the specified name, over the
+     * rows of the specified composition index. The graph is empty if there
+     * are no such files.
+     *
+     * @param name name of the files backing the graph
+     * @param index the composition index whose rows are linked
+     * @throws IOException if the files cannot be opened
+     */
+    NeighborGraph(String name, CompositionIndex index) throws IOException {
+        this.index = index;
+        disk = new Disk<>(name + ".index", name + ".objects", 0, new TablesCodec());
+        tables = disk.isEmpty() ? null : disk.readElement(0);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the graph has not been built for the current
+     * rows of the composition index.
+     *
+     * @return <tt>true</tt> if the graph has not been built
+     */
+    boolean isEmpty() {
+        return !isBuiltFor(tables, index.snapshot());
+    }
+
+    // Returns true if the tables were built from the rows of the snapshot.
+    private static boolean isBuiltFor(Tables tables, CompositionIndex.Snapshot snapshot) {
+        return tables != null && snapshot != null && tables.rowsByName.length == snapshot.size() && tables.fingerprint == snapshot.getFingerprint();
+    }
+
+    /**
+     * Finds the <tt>k</tt> nearest rows of every row of the composition index
+     * and writes them to the files of the graph, replacing the previous graph.
+     * The rows are searched in parallel on the specified pool, in the
+     * snapshot of the index taken when the search starts, while the index
+     * keeps answering queries. The graph is not written if the index holds
+     * other rows when the search ends. The index may still be rebuilt after
+     * that check, so every lookup compares the fingerprint of the graph with
+     * that of the snapshot it reads, and a graph of other rows is never used.
+     * Builds are run one at a time.
+     *
+     * @param k the number of rows kept for every row
+     * @param pool the pool running the searches
+     */
+    synchronized void build(int k, ForkJoinPool pool) {
+        CompositionIndex.Snapshot searched = index.snapshot();
+        if (searched == null) {
+            return;
+        }
+        int size = searched.size();
+        Tables built = new Tables();
+        built.k = k;
+        built.fingerprint = searched.getFingerprint();
+        built.rowsByName = new int[size];
+        built.nationalRows = new int[size * k];
+        built.stateRows = new int[size * k];
+        CompositionIndex.nearestOfEveryRow(searched, k, built.nationalRows, built.stateRows, built.rowsByName, pool);
+        if (!isBuiltFor(built, index.snapshot())) {
+            return;
+        }
+        disk.writeElement(0, built);
+        tables = built;
+    }
+
+    /**
+     * Returns the rows nearest to the specified place, from the nearest to
+     * the farthest, and their squared euclidean distances, or <tt>null</tt>
+     * if the graph cannot answer: if it has not been built for the current
+     * rows, if it keeps fewer than <tt>k</tt> rows for every row, if the
+     * place is not in the composition index with the specified composition,
+     * or if the rows are restricted to another state than that of the place.
+     * The place itself is not returned.
+     *
+     * @param name the name of the place
+     * @param composition the composition of the place
+     * @param k the number of rows to return
+     * @param stateCode the dictionary code of the state the rows must be in,
+     * or -1 for all states
+     * @param squaredDistances receives the squared distances of the rows
+     * @return the nearest rows, fewer than <tt>k</tt> if there are fewer
+     * other rows, or <tt>null</tt>
+     */
+    int[] nearest(String name, float[] composition, int k, int stateCode, float[] squaredDistances) {
+        Tables current = tables;
+        CompositionIndex.Snapshot snapshot = index.snapshot();
+        if (!isBuiltFor(current, snapshot) || k > current.k) {
+            return null;
+        }
+        int row = row(current, snapshot, name);
+        int dimensions = PopulationCodec.COMPOSITION_SIZE;
+        float[] points = snapshot.getPoints();
+        if (row < 0 || !Arrays.equals(composition, Arrays.copyOfRange(points, row * dimensions, (row + 1) * dimensions))) {
+            return null;
+        }
+        int[] neighbors;
+        if (stateCode < 0) {
+            neighbors = current.nationalRows;
+        } else if (stateCode == snapshot.getStateCode(row)) {
+            neighbors = current.stateRows;
+        } else {
+            return null;
+        }
+        int count = 0;
+        while (count < k && neighbors[row * current.k + count] >= 0) {
+            count++;
+        }
+        int[] rows = Arrays.copyOfRange(neighbors, row * current.k, row * current.k + count);
+        for (int i = 0; i < count; i++) {
+            squaredDistances[i] = DistanceKernel.squaredDistance(composition, 0, points, rows[i] * dimensions, dimensions);
+        }
+        return rows;
+    }
+
+    // Finds the row of the place with the specified name, or -1, by binary search over the rows sorted by name.
+    private static int row(Tables current, CompositionIndex.Snapshot snapshot, String name) {
+        int lo = 0;
+        int hi = current.rowsByName.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = snapshot.getName(current.rowsByName[mid]).compareTo(name);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return current.rowsByName[mid];
+            }
+        }
+        return -1;
+    }
+}
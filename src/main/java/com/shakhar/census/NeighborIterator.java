@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.BTreeMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the <tt>Neighbor</tt>s found by a radius query, from the
+ * nearest to the farthest. The places are found by the index before the
+ * first <tt>Neighbor</tt> is returned, but every <tt>Population</tt> is only
+ * read when its <tt>Neighbor</tt> is returned, so a caller which stops early
+ * does not read the others. The iterator also reports how many places the
+ * query compared to find its result.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class NeighborIterator implements Iterator<Neighbor> {
+
+    private final CompositionIndex index;
+    private final BTreeMap<String, Population> populations;
+    private final CompositionIndex.Matches matches;
+    private int next;
+
+    NeighborIterator(CompositionIndex index, BTreeMap<String, Population> populations, CompositionIndex.Matches matches) {
+        this.index = index;
+        this.populations = populations;
+        this.matches = matches;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next < matches.rows.length;
+    }
+
+    @Override
+    public Neighbor next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int row = matches.rows[next];
+        float distance = (float) Math.sqrt(matches.squaredDistances[next]);
+        next++;
+        return new Neighbor(populations.get(index.getName(row)), distance);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the number of places found by the query.
+     *
+     * @return the number of places found
+     */
+    public int size() {
+        return matches.rows.length;
+    }
+
+    /**
+     * Returns the number of places whose composition the query compared
+     * with the composition of the query to find its result.
+     *
+     * @return the number of places compared
+     */
+    public int getComparedCount() {
+        return matches.compared;
+    }
+
+    /**
+     * Returns the cost of the query relative to the size of its result: the
+     * number of places compared for every place found, or for one place if
+     * none was found. A full scan would compare every place.
+     *
+     * @return the number of places compared per place found
+     */
+    public float getCost() {
+        return (float) matches.compared / Math.max(1, matches.rows.length);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import java.util.List;
+
+/**
+ * Receives the places found by a nearest populations query as the search
+ * proceeds. The listener is called on the thread running the query, with
+ * the nearest places found so far whenever they improve, and last with the
+ * result of the query. A listener may throw an unchecked exception to stop
+ * the query, which then throws it to its caller.
+ *
+ * @author Shakhar Dasgupta
+ */
+public interface NeighborListener {
+
+    /**
+     * Called when the nearest places found so far have changed, or when the
+     * search is over.
+     *
+     * @param neighbors the nearest places found so far, from the nearest to
+     * the farthest, in a list which cannot be modified
+     * @param complete <tt>true</tt> if the search is over and the places are
+     * its result
+     */
+    void neighborsFound(List<Neighbor> neighbors, boolean complete);
+}
@@ -20,16 +20,23 @@ import java.io.Serializable;
 import java.util.Objects;
 
 /**
- * Place defined by the US Census Bureau.
+ * Place defined by the US Census Bureau. Besides incorporated and census
+ * designated places, a <tt>Place</tt> may be a census tract or a block group,
+ * in which case it also carries the county, tract and block group codes which
+ * locate it in the census geography hierarchy.
  *
  * @author Shakhar Dasgupta
  */
 public class Place implements Serializable {
 
+    private final GeographyLevel level;
     private final State state;
     private final String fipsCode;
     private final String name;
     private final String county;
+    private final String countyFipsCode;
+    private final String tractCode;
+    private final String blockGroupCode;
 
     /**
      * Constructs a <tt>Place</tt> from the specified <tt>state</tt>,
@@ -44,10 +51,64 @@ public class Place implements Serializable {
      * associated with this <tt>Place</tt>
      */
     public Place(State state, String fipsCode, String placeName, String county) {
+        this.level = GeographyLevel.PLACE;
         this.state = state;
         this.fipsCode = fipsCode;
         this.name = placeName;
         this.county = county;
+        this.countyFipsCode = null;
+        this.tractCode = null;
+        this.blockGroupCode = null;
+    }
+
+    /**
+     * Constructs a census tract or block group <tt>Place</tt> from its
+     * geography hierarchy codes. The FIPS Code of the <tt>Place</tt> is the
+     * concatenation of the county, tract and block group codes, and its name
+     * is made of the block group, tract and county, as in "Block Group 1,
+     * Census Tract 208.02, Autauga County".
+     *
+     * @param state the <tt>State</tt> which geographically contains this
+     * <tt>Place</tt>
+     * @param countyFipsCode the three digit FIPS Code of the county within
+     * its <tt>State</tt>
+     * @param tractCode the six digit code of the tract within its county
+     * @param blockGroupCode the single digit code of the block group within
+     * its tract, or <tt>null</tt> if this <tt>Place</tt> is a tract
+     * @param county the name of the county
+     */
+    public Place(State state, String countyFipsCode, String tractCode, String blockGroupCode, String county) {
+        this.level = blockGroupCode == null ? GeographyLevel.TRACT : GeographyLevel.BLOCK_GROUP;
+        this.state = state;
+        this.fipsCode = blockGroupCode == null ? countyFipsCode + tractCode : countyFipsCode + tractCode + blockGroupCode;
+        this.name = tractName(tractCode, blockGroupCode, county);
+        this.county = county;
+        this.countyFipsCode = countyFipsCode;
+        this.tractCode = tractCode;
+        this.blockGroupCode = blockGroupCode;
+    }
+
+    // Returns the name of a tract or block group. The last two digits of a tract code are a suffix shown only when not zero.
+    private static String tractName(String tractCode, String blockGroupCode, String county) {
+        int tract = Integer.parseInt(tractCode);
+        StringBuilder name = new StringBuilder();
+        if (blockGroupCode != null) {
+            name.append("Block Group ").append(blockGroupCode).append(", ");
+        }
+        name.append("Census Tract ").append(tract / 100);
+        if (tract % 100 != 0) {
+            name.append(tract % 100 < 10 ? ".0" : ".").append(tract % 100);
+        }
+        return name.append(", ").append(county).toString();
+    }
+
+    /**
+     * Returns the <tt>GeographyLevel</tt> of this <tt>Place</tt>.
+     *
+     * @return the <tt>GeographyLevel</tt> of this <tt>Place</tt>
+     */
+    public GeographyLevel getLevel() {
+        return level;
     }
 
     /**
@@ -92,6 +153,36 @@ public class Place implements Serializable {
         return county;
     }
 
+    /**
+     * Returns the FIPS Code of the county containing this <tt>Place</tt>.
+     *
+     * @return the FIPS Code of the county containing this <tt>Place</tt>, or
+     * <tt>null</tt> if this <tt>Place</tt> is not a tract or block group
+     */
+    public String getCountyFipsCode() {
+        return countyFipsCode;
+    }
+
+    /**
+     * Returns the code of the tract containing this <tt>Place</tt>.
+     *
+     * @return the code of the tract containing this <tt>Place</tt>, or
+     * <tt>null</tt> if this <tt>Place</tt> is not a tract or block group
+     */
+    public String getTractCode() {
+        return tractCode;
+    }
+
+    /**
+     * Returns the code of this block group within its tract.
+     *
+     * @return the code of this block group within its tract, or <tt>null</tt>
+     * if this <tt>Place</tt> is not a block group
+     */
+    public String getBlockGroupCode() {
+        return blockGroupCode;
+    }
+
     /**
      * Returns the <tt>String</tt> representation of this <tt>Place</tt>. The
      * <tt>String</tt> representation contains the name of the place followed by
@@ -107,6 +198,7 @@ public class Place implements Serializable {
     @Override
     public int hashCode() {
         int hash = 7;
+        hash = 67 * hash + Objects.hashCode(this.level);
         hash = 67 * hash + Objects.hashCode(this.state);
         hash = 67 * hash + Objects.hashCode(this.fipsCode);
         hash = 67 * hash + Objects.hashCode(this.name);
@@ -126,6 +218,9 @@ public class Place implements Serializable {
             return false;
         }
         final Place other = (Place) obj;
+        if (this.level != other.level) {
+            return false;
+        }
         if (!Objects.equals(this.fipsCode, other.fipsCode)) {
             return false;
         }
@@ -155,6 +155,27 @@ public class Population implements Serializable {
         return multiRacialPopulation;
     }
 
+    /**
+     * Returns the racial composition of this <tt>Population</tt>, as the
+     * percentage of the total population belonging to each racial category,
+     * in the order White, Black, American Indian and Alaska Native, Asian,
+     * Native Hawaiian and Other Pacific Islander, other races and two or more
+     * races.
+     *
+     * @return the percentage of each racial category
+     */
+    public float[] getComposition() {
+        float total = totalPopulation;
+        return new float[]{
+            whitePopulation / total * 100,
+            blackPopulation / total * 100,
+            americanIndianAndAlaskaNativePopulation / total * 100,
+            asianPopulation / total * 100,
+            nativeHawaiianAndOtherPacificIslanderPopulation / total * 100,
+            otherRacesPopulation / total * 100,
+            multiRacialPopulation / total * 100};
+    }
+
     /**
      * Returns the <tt>String</tt> representation of this <tt>Population</tt>.
      * The <tt>String</tt> representation contains the place and population of
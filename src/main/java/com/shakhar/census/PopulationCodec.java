@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.Codec;
+import com.shakhar.util.Interner;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * <tt>Codec</tt> of stored <tt>Population</tt>s. A record holds the eight
+ * population counts and the precomputed composition of the population,
+ * followed by the dictionary codes of the state and county,
+ * the geography level and the FIPS code of the place. The name is only stored
+ * for places, as the names of tracts and block groups follow from their codes.
+ * Decoded <tt>Place</tt>s are interned by their state and FIPS code, so a
+ * <tt>Place</tt> still in use is shared by every later decode of its record.
+ *
+ * @author Shakhar Dasgupta
+ */
+class PopulationCodec implements Codec<Population> {
+
+    /**
+     * Number of racial categories in the composition of a record.
+     */
+    static final int COMPOSITION_SIZE = 7;
+    /**
+     * Index in a record of the composition, which follows the eight counts.
+     */
+    static final int COMPOSITION_OFFSET = 32;
+    /**
+     * Index in a record of the state code, which follows the composition.
+     */
+    static final int STATE_OFFSET = COMPOSITION_OFFSET + COMPOSITION_SIZE * 4;
+    private static final int COUNTY_FIPS_LENGTH = 3;
+    private static final int TRACT_LENGTH = 6;
+
+    private final GeographyDictionary dictionary;
+    private final Interner<Long, Place> places;
+
+    /**
+     * Constructs a <tt>PopulationCodec</tt> which encodes states and counties
+     * with the specified dictionary.
+     *
+     * @param dictionary the dictionary of states and counties
+     */
+    PopulationCodec(GeographyDictionary dictionary) {
+        this.dictionary = dictionary;
+        places = new Interner<>();
+    }
+
+    @Override
+    public void write(DataOutputStream out, Population population) throws IOException {
+        Place place = population.getPlace();
+        out.writeInt(population.getTotalPopulation());
+        out.writeInt(population.getWhitePopulation());
+        out.writeInt(population.getBlackPopulation());
+        out.writeInt(population.getAmericanIndianAndAlaskaNativePopulation());
+        out.writeInt(population.getAsianPopulation());
+        out.writeInt(population.getNativeHawaiianAndOtherPacificIslanderPopulation());
+        out.writeInt(population.getOtherRacesPopulation());
+        out.writeInt(population.getMultiRacialPopulation());
+        for (float percentage : population.getComposition()) {
+            out.writeFloat(percentage);
+        }
+        out.writeShort(dictionary.getStateCode(place.getState()));
+        out.writeInt(place.getCounty() == null ? -1 : dictionary.getCountyCode(place.getCounty()));
+        out.writeByte(place.getLevel().ordinal());
+        out.writeUTF(place.getFipsCode());
+        if (place.getLevel() == GeographyLevel.PLACE) {
+            out.writeUTF(place.getName());
+        }
+    }
+
+    @Override
+    public Population read(DataInputStream in) throws IOException {
+        int total = in.readInt();
+        int white = in.readInt();
+        int black = in.readInt();
+        int indian = in.readInt();
+        int asian = in.readInt();
+        int hawaiian = in.readInt();
+        int other = in.readInt();
+        int multi = in.readInt();
+        in.skipBytes(COMPOSITION_SIZE * 4);
+        short stateCode = in.readShort();
+        State state = dictionary.getState(stateCode);
+        int countyCode = in.readInt();
+        String county = countyCode < 0 ? null : dictionary.getCounty(countyCode);
+        GeographyLevel level = GeographyLevel.values()[in.readByte()];
+        String fipsCode = in.readUTF();
+        String name = level == GeographyLevel.PLACE ? in.readUTF() : null;
+        // FIPS codes have at most ten digits, which fit below the state code in a long.
+        Long key = ((long) stateCode << 40) | Long.parseLong(fipsCode);
+        Place place = places.get(key);
+        if (place == null) {
+            if (level == GeographyLevel.PLACE) {
+                place = new Place(state, fipsCode, name, county);
+            } else {
+                int tractEnd = COUNTY_FIPS_LENGTH + TRACT_LENGTH;
+                place = new Place(state, fipsCode.substring(0, COUNTY_FIPS_LENGTH), fipsCode.substring(COUNTY_FIPS_LENGTH, tractEnd), level == GeographyLevel.BLOCK_GROUP ? fipsCode.substring(tractEnd) : null, county);
+            }
+            place = places.intern(key, place);
+        }
+        return new Population(place, total, white, black, indian, asian, hawaiian, other, multi);
+    }
+}
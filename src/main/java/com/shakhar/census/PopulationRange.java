@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+/**
+ * Range of total populations, inclusive at both ends, which the places
+ * returned by a similarity query must fall in.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class PopulationRange {
+
+    private final int minimum;
+    private final int maximum;
+
+    /**
+     * Constructs a <tt>PopulationRange</tt> from the specified
+     * <tt>minimum</tt> and <tt>maximum</tt> total populations.
+     *
+     * @param minimum the smallest total population in the range
+     * @param maximum the largest total population in the range
+     */
+    public PopulationRange(int minimum, int maximum) {
+        this.minimum = minimum;
+        this.maximum = maximum;
+    }
+
+    /**
+     * Returns a <tt>PopulationRange</tt> holding the total populations
+     * between the specified fraction and multiple of the total population of
+     * the specified <tt>Population</tt>.
+     *
+     * @param population the <tt>Population</tt> at the center of the range
+     * @param factor how many times smaller or larger than the total
+     * population of the <tt>Population</tt> the range reaches, at least 1
+     * @return the range of total populations
+     */
+    public static PopulationRange around(Population population, float factor) {
+        int total = population.getTotalPopulation();
+        return new PopulationRange((int) Math.ceil(total / factor), (int) Math.min(Integer.MAX_VALUE, Math.floor((double) total * factor)));
+    }
+
+    /**
+     * Returns the smallest total population in this range.
+     *
+     * @return the smallest total population in this range
+     */
+    public int getMinimum() {
+        return minimum;
+    }
+
+    /**
+     * Returns the largest total population in this range.
+     *
+     * @return the largest total population in this range
+     */
+    public int getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified total population is in this
+     * range.
+     *
+     * @param totalPopulation the total population
+     * @return <tt>true</tt> if the total population is in this range
+     */
+    public boolean contains(int totalPopulation) {
+        return totalPopulation >= minimum && totalPopulation <= maximum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PopulationRange)) {
+            return false;
+        }
+        PopulationRange range = (PopulationRange) o;
+        return minimum == range.minimum && maximum == range.maximum;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * minimum + maximum;
+    }
+
+    /**
+     * Returns the <tt>String</tt> representation of this
+     * <tt>PopulationRange</tt>.
+     *
+     * @return the <tt>String</tt> representation of this
+     * <tt>PopulationRange</tt>
+     */
+    @Override
+    public String toString() {
+        return minimum + " to " + maximum;
+    }
+}
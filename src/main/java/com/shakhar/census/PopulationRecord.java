@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.BTreeCursor;
+import com.shakhar.util.StringCodec;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reusable view over the stored <tt>Population</tt> records, one record at a
+ * time. The counts and the <tt>State</tt> of the current record are read
+ * directly from the stored bytes, so a scan which only needs the counts
+ * decodes and allocates nothing per record. The <tt>Population</tt> and its
+ * <tt>Place</tt> are only materialized when asked for.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class PopulationRecord {
+
+    private static final int INT_SIZE = 4;
+    private static final StringCodec KEY_CODEC = new StringCodec();
+
+    private final BTreeCursor cursor;
+    private final PopulationCodec codec;
+    private final GeographyDictionary dictionary;
+    private byte[] buffer;
+    private int offset;
+
+    PopulationRecord(BTreeCursor cursor, PopulationCodec codec, GeographyDictionary dictionary) {
+        this.cursor = cursor;
+        this.codec = codec;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Advances to the next record, in the order of the place names.
+     *
+     * @return <tt>true</tt> if there was a next record, <tt>false</tt> if
+     * every record has been visited
+     */
+    public boolean next() {
+        if (!cursor.next()) {
+            buffer = null;
+            return false;
+        }
+        buffer = cursor.getBuffer();
+        offset = cursor.getValueOffset();
+        return true;
+    }
+
+    /**
+     * Moves back before the first record, so that this view can be reused for
+     * another scan.
+     */
+    public void reset() {
+        cursor.reset();
+        buffer = null;
+    }
+
+    /**
+     * Returns the total population of the current record.
+     *
+     * @return total population
+     */
+    public int getTotalPopulation() {
+        return getCount(0);
+    }
+
+    /**
+     * Returns the population of the Whites in the current record.
+     *
+     * @return population of the Whites
+     */
+    public int getWhitePopulation() {
+        return getCount(1);
+    }
+
+    /**
+     * Returns the population of the Blacks in the current record.
+     *
+     * @return population of the Blacks
+     */
+    public int getBlackPopulation() {
+        return getCount(2);
+    }
+
+    /**
+     * Returns the population of the American Indians and Alaska Natives in
+     * the current record.
+     *
+     * @return population of the American Indians and Alaska Natives
+     */
+    public int getAmericanIndianAndAlaskaNativePopulation() {
+        return getCount(3);
+    }
+
+    /**
+     * Returns the population of the Asians in the current record.
+     *
+     * @return population of the Asians
+     */
+    public int getAsianPopulation() {
+        return getCount(4);
+    }
+
+    /**
+     * Returns the population of the Native Hawaiians and Other Pacific
+     * Islanders in the current record.
+     *
+     * @return population of the Native Hawaiians and Other Pacific Islanders
+     */
+    public int getNativeHawaiianAndOtherPacificIslanderPopulation() {
+        return getCount(5);
+    }
+
+    /**
+     * Returns the population of people belonging to other races in the
+     * current record.
+     *
+     * @return population of people belonging to other races
+     */
+    public int getOtherRacesPopulation() {
+        return getCount(6);
+    }
+
+    /**
+     * Returns the population of people belonging to two or more races in the
+     * current record.
+     *
+     * @return population of people belonging to two or more races
+     */
+    public int getMultiRacialPopulation() {
+        return getCount(7);
+    }
+
+    /**
+     * Returns the squared euclidean distance between the precomputed
+     * composition of the current record and the specified composition.
+     *
+     * @param composition a composition, as returned by
+     * <tt>Population.getComposition()</tt>
+     * @return the squared euclidean distance between the compositions
+     */
+    public float squaredDistance(float[] composition) {
+        int position = offset + PopulationCodec.COMPOSITION_OFFSET;
+        float sum = 0;
+        for (int i = 0; i < PopulationCodec.COMPOSITION_SIZE; i++, position += INT_SIZE) {
+            float d = composition[i] - Float.intBitsToFloat(BTreeCursor.readInt(buffer, position));
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /**
+     * Copies the precomputed composition of the current record into an
+     * array.
+     *
+     * @param composition the array receiving the composition
+     * @param offset index in the array of the first percentage
+     */
+    public void getComposition(float[] composition, int offset) {
+        int position = this.offset + PopulationCodec.COMPOSITION_OFFSET;
+        for (int i = 0; i < PopulationCodec.COMPOSITION_SIZE; i++, position += INT_SIZE) {
+            composition[offset + i] = Float.intBitsToFloat(BTreeCursor.readInt(buffer, position));
+        }
+    }
+
+    // Returns the dictionary code of the state of the current record.
+    short getStateCode() {
+        return BTreeCursor.readShort(buffer, offset + PopulationCodec.STATE_OFFSET);
+    }
+
+    /**
+     * Returns the <tt>State</tt> of the current record. The <tt>State</tt> is
+     * the shared instance of the dictionary, so it can be compared by
+     * identity.
+     *
+     * @return the <tt>State</tt> of the current record
+     */
+    public State getState() {
+        return dictionary.getState(getStateCode());
+    }
+
+    /**
+     * Returns the name of the place of the current record, as returned by
+     * <tt>Place.toString()</tt>.
+     *
+     * @return the name of the place of the current record
+     */
+    public String getPlaceName() {
+        try {
+            return cursor.decodeKey(KEY_CODEC);
+        } catch (IOException ex) {
+            Logger.getLogger(PopulationRecord.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Materializes the <tt>Population</tt> of the current record.
+     *
+     * @return the <tt>Population</tt> of the current record
+     */
+    public Population getPopulation() {
+        try {
+            return cursor.decodeValue(codec);
+        } catch (IOException ex) {
+            Logger.getLogger(PopulationRecord.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the current record holds the specified
+     * <tt>Population</tt>. The counts are compared first, so the record is
+     * only materialized when they are all equal.
+     *
+     * @param population the <tt>Population</tt> to be compared
+     * @return <tt>true</tt> if the current record holds the specified
+     * <tt>Population</tt>
+     */
+    public boolean holds(Population population) {
+        return population != null
+                && getTotalPopulation() == population.getTotalPopulation()
+                && getWhitePopulation() == population.getWhitePopulation()
+                && getBlackPopulation() == population.getBlackPopulation()
+                && getAmericanIndianAndAlaskaNativePopulation() == population.getAmericanIndianAndAlaskaNativePopulation()
+                && getAsianPopulation() == population.getAsianPopulation()
+                && getNativeHawaiianAndOtherPacificIslanderPopulation() == population.getNativeHawaiianAndOtherPacificIslanderPopulation()
+                && getOtherRacesPopulation() == population.getOtherRacesPopulation()
+                && getMultiRacialPopulation() == population.getMultiRacialPopulation()
+                && population.equals(getPopulation());
+    }
+
+    private int getCount(int index) {
+        return BTreeCursor.readInt(buffer, offset + index * INT_SIZE);
+    }
+}
@@ -16,16 +16,21 @@
  */
 package com.shakhar.census;
 
+import com.shakhar.util.Interner;
 import java.io.Serializable;
 import java.util.Objects;
 
 /**
- * US state or territory recognized by the US Census Bureau.
+ * US state or territory recognized by the US Census Bureau. Deserialized
+ * <tt>State</tt>s are resolved to a single canonical instance per FIPS Code,
+ * so <tt>State</tt>s read from storage can be compared by identity.
  *
  * @author Shakhar Dasgupta
  */
 public class State implements Serializable {
 
+    private static final Interner<String, State> POOL = new Interner<>();
+
     private final String fipsCode;
     private final String uspsCode;
     private final String name;
@@ -75,6 +80,21 @@ public class State implements Serializable {
         return name;
     }
 
+    /**
+     * Returns the canonical instance of this <tt>State</tt>, which is the
+     * first <tt>State</tt> with its FIPS Code to be interned and still in
+     * use.
+     *
+     * @return the canonical instance of this <tt>State</tt>
+     */
+    State intern() {
+        return POOL.intern(fipsCode, this);
+    }
+
+    private Object readResolve() {
+        return intern();
+    }
+
     @Override
     public int hashCode() {
         int hash = 5;
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.censusfx;
+
+import com.shakhar.census.CensusData;
+import com.shakhar.census.GeographyLevel;
+import com.shakhar.census.LoadListener;
+import com.shakhar.census.LoadPhase;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+
+/**
+ * <tt>Service</tt> which loads the <tt>CensusData</tt> of a
+ * <tt>GeographyLevel</tt> on a background thread, publishing the phase of
+ * loading as its message and the progress within the phase as its progress.
+ * Loaded <tt>CensusData</tt> is kept for the lifetime of the application, so
+ * loading a level again completes at once.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class CensusDataService extends Service<CensusData> {
+
+    private static final Map<GeographyLevel, CensusData> loaded = new EnumMap<>(GeographyLevel.class);
+    // A single daemon thread, so loads never run concurrently and never keep the application alive.
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "CensusData loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private GeographyLevel level = GeographyLevel.PLACE;
+
+    /**
+     * Constructs a <tt>CensusDataService</tt> which loads places.
+     */
+    public CensusDataService() {
+        setExecutor(EXECUTOR);
+    }
+
+    /**
+     * Returns the <tt>CensusData</tt> of the specified level if it has
+     * already been loaded.
+     *
+     * @param level the <tt>GeographyLevel</tt> of the data
+     * @return the loaded <tt>CensusData</tt>, or <tt>null</tt> if it has not
+     * been loaded yet
+     */
+    public static CensusData getLoaded(GeographyLevel level) {
+        synchronized (loaded) {
+            return loaded.get(level);
+        }
+    }
+
+    /**
+     * Returns the <tt>GeographyLevel</tt> loaded by this service.
+     *
+     * @return the <tt>GeographyLevel</tt> loaded by this service
+     */
+    public GeographyLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the <tt>GeographyLevel</tt> loaded by the next run of this
+     * service.
+     *
+     * @param level the <tt>GeographyLevel</tt> to be loaded
+     */
+    public void setLevel(GeographyLevel level) {
+        this.level = level;
+    }
+
+    @Override
+    protected Task<CensusData> createTask() {
+        final GeographyLevel taskLevel = level;
+        return new Task<CensusData>() {
+            @Override
+            protected CensusData call() throws Exception {
+                CensusData data = getLoaded(taskLevel);
+                if (data == null) {
+                    data = new CensusData(taskLevel, new LoadListener() {
+                        @Override
+                        public void progress(LoadPhase phase, long workDone, long max) {
+                            updateMessage(phase.toString());
+                            updateProgress(workDone, max);
+                        }
+                    });
+                    synchronized (loaded) {
+                        loaded.put(taskLevel, data);
+                    }
+                }
+                updateMessage(LoadPhase.READY.toString());
+                updateProgress(1, 1);
+                return data;
+            }
+        };
+    }
+}
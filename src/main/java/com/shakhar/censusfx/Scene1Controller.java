@@ -17,6 +17,7 @@
 package com.shakhar.censusfx;
 
 import com.shakhar.census.CensusData;
+import com.shakhar.census.GeographyLevel;
 import com.shakhar.census.Population;
 import com.shakhar.control.AutoCompleteTextField;
 import java.io.IOException;
@@ -26,13 +27,18 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.stage.Stage;
 
 /**
@@ -43,16 +49,10 @@ import javafx.stage.Stage;
 public class Scene1Controller implements Initializable {
 
     private static final String ALL_STRING = "All States and Territories";
-    private static CensusData censusData;
+    private static GeographyLevel selectedLevel = GeographyLevel.PLACE;
     private final Stage stage;
-
-    static {
-        try {
-            censusData = new CensusData();
-        } catch (IOException ex) {
-            Logger.getLogger(Scene1Controller.class.getName()).log(Level.SEVERE, null, ex);
-        }
-    }
+    private final CensusDataService censusDataService;
+    private CensusData censusData;
 
     /**
      * Constructs <tt>Scene1Controller</tt>.
@@ -61,7 +61,7 @@ public class Scene1Controller implements Initializable {
      */
     public Scene1Controller(Stage stage) {
         this.stage = stage;
-
+        censusDataService = new CensusDataService();
     }
 
     @FXML
@@ -70,11 +70,23 @@ public class Scene1Controller implements Initializable {
     private AutoCompleteTextField stateField;
     @FXML
     private Label errorLabel;
+    @FXML
+    private ChoiceBox<GeographyLevel> levelBox;
+    @FXML
+    private Button searchButton;
+    @FXML
+    private ProgressBar progressBar;
+    @FXML
+    private Label statusLabel;
 
     @FXML
     private void handleSearch(ActionEvent event) throws IOException {
         String placeString = placeField.getText();
         String stateString = stateField.getText();
+        if (censusData == null) {
+            errorLabel.setText("Census data is still loading.");
+            return;
+        }
         Population placePopulation = censusData.getPopulationByPlace(placeString);
         if (placePopulation == null) {
             errorLabel.setText("Invalid Place entered.");
@@ -101,11 +113,70 @@ public class Scene1Controller implements Initializable {
         stage.setScene(scene2);
     }
 
-    @Override
-    public void initialize(URL url, ResourceBundle rb) {
+    // Shows the loaded census data and enables the fields which need it.
+    private void showCensusData(CensusData data) {
+        censusData = data;
+        placeField.getEntries().clear();
         placeField.getEntries().addAll(censusData.getPlaceNames());
+        stateField.getEntries().clear();
         stateField.getEntries().add(ALL_STRING);
         stateField.getEntries().addAll(censusData.getStateNames());
+        setLoading(false);
+    }
+
+    // Loads the census data at the specified level in the background, unless it has already been loaded.
+    private void loadCensusData(GeographyLevel level) {
+        CensusData data = CensusDataService.getLoaded(level);
+        if (data != null) {
+            showCensusData(data);
+            return;
+        }
+        censusData = null;
+        setLoading(true);
+        censusDataService.setLevel(level);
+        censusDataService.restart();
+    }
+
+    private void setLoading(boolean loading) {
+        placeField.setDisable(loading);
+        stateField.setDisable(loading);
+        searchButton.setDisable(loading);
+        progressBar.setVisible(loading);
+        statusLabel.setVisible(loading);
+    }
+
+    @Override
+    public void initialize(URL url, ResourceBundle rb) {
+        progressBar.progressProperty().bind(censusDataService.progressProperty());
+        statusLabel.textProperty().bind(censusDataService.messageProperty());
+        censusDataService.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                if (censusDataService.getLevel() == selectedLevel) {
+                    showCensusData(censusDataService.getValue());
+                }
+            }
+        });
+        censusDataService.setOnFailed(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                Throwable ex = censusDataService.getException();
+                Logger.getLogger(Scene1Controller.class.getName()).log(Level.SEVERE, null, ex);
+                progressBar.setVisible(false);
+                statusLabel.setVisible(false);
+                errorLabel.setText("Census data could not be loaded: " + ex.getMessage());
+            }
+        });
+        levelBox.getItems().addAll(GeographyLevel.values());
+        levelBox.setValue(selectedLevel);
+        levelBox.valueProperty().addListener(new ChangeListener<GeographyLevel>() {
+            @Override
+            public void changed(ObservableValue<? extends GeographyLevel> observable, GeographyLevel oldValue, GeographyLevel newValue) {
+                selectedLevel = newValue;
+                errorLabel.setText("");
+                loadCensusData(newValue);
+            }
+        });
         placeField.textProperty().addListener(new ChangeListener<String>() {
             @Override
             public void changed(ObservableValue<? extends String> observable, String oldValue, String newValue) {
@@ -118,5 +189,6 @@ public class Scene1Controller implements Initializable {
                 errorLabel.setText("");
             }
         });
+        loadCensusData(selectedLevel);
     }
 }
@@ -17,12 +17,18 @@
 package com.shakhar.censusfx;
 
 import com.shakhar.census.CensusData;
+import com.shakhar.census.DistanceMetric;
+import com.shakhar.census.Neighbor;
+import com.shakhar.census.NeighborListener;
 import com.shakhar.census.Population;
 import java.io.IOException;
 import java.net.URL;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -40,6 +46,7 @@ import javafx.stage.Stage;
  */
 public class Scene2Controller implements Initializable {
 
+    private static final int MORE_COUNT = 25;
     private final Stage stage;
     private final CensusData censusData;
     private final Population population1;
@@ -112,13 +119,32 @@ public class Scene2Controller implements Initializable {
     
     @FXML
     private void handleMore(ActionEvent event) throws IOException {
-        Scene3Controller scene3Controller = new Scene3Controller(stage, censusData.getSimilarPopulations(population1, state));
+        // The similar places are searched on a background thread, and the third scene lists the nearest ones found so far as the search proceeds.
+        Task<List<Neighbor>> search = new Task<List<Neighbor>>() {
+            @Override
+            protected List<Neighbor> call() throws Exception {
+                return censusData.getNearestPopulations(population1, state, MORE_COUNT, DistanceMetric.EUCLIDEAN, null, new NeighborListener() {
+                    @Override
+                    public void neighborsFound(List<Neighbor> neighbors, boolean complete) {
+                        // Stops the search once the third scene has been left.
+                        if (isCancelled()) {
+                            throw new CancellationException();
+                        }
+                        updateValue(neighbors);
+                    }
+                });
+            }
+        };
+        Scene3Controller scene3Controller = new Scene3Controller(stage, search);
         FXMLLoader scene3Loader = new FXMLLoader(getClass().getResource("/fxml/Scene3.fxml"));
         scene3Loader.setController(scene3Controller);
         Parent root = scene3Loader.load();
         Scene scene3 = new Scene(root);
         scene3.getStylesheets().add("/styles/Styles.css");
         stage.setScene(scene3);
+        Thread thread = new Thread(search, "Similar places search");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     @FXML
@@ -16,16 +16,22 @@
  */
 package com.shakhar.censusfx;
 
+import com.shakhar.census.Neighbor;
 import com.shakhar.census.Population;
 import java.io.IOException;
 import java.net.URL;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
@@ -44,10 +50,10 @@ import javafx.stage.Stage;
 public class Scene3Controller implements Initializable {
     
     private final Stage stage;
-    private final List<Population> populations;
+    private final Task<List<Neighbor>> search;
 
     @FXML
-    private ListView<Population> listView;
+    private ListView<Neighbor> listView;
     @FXML
     private PieChart chart;
     @FXML
@@ -57,30 +63,72 @@ public class Scene3Controller implements Initializable {
     @FXML
     private Text stateText;
 
-    public Scene3Controller(Stage stage, List<Population> populations) {
+    /**
+     * Constructs <tt>Scene3Controller</tt>.
+     *
+     * @param stage the stage where the third scene has been set
+     * @param search the search of the similar places to be listed, from the
+     * most similar, whose value is listed again whenever it changes; it is
+     * cancelled when the scene is left
+     */
+    public Scene3Controller(Stage stage, Task<List<Neighbor>> search) {
         this.stage = stage;
-        this.populations = populations;
+        this.search = search;
     }
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
-        listView.setItems(FXCollections.observableArrayList(populations));
+        listView.setItems(FXCollections.<Neighbor>observableArrayList());
         listView.getSelectionModel().selectionModeProperty().setValue(SelectionMode.SINGLE);
         listView.getSelectionModel().selectedItemProperty().addListener(
-                new ChangeListener<Population>() {
+                new ChangeListener<Neighbor>() {
                     @Override
-                    public void changed(ObservableValue<? extends Population> observable, Population oldValue, Population newValue) {
-                        placeText.setText(newValue.getPlace().getName());
-                        countyText.setText(newValue.getPlace().getCounty());
-                        stateText.setText(newValue.getPlace().getState().getName());
-                        chart.setData(populationToList(newValue));
+                    public void changed(ObservableValue<? extends Neighbor> observable, Neighbor oldValue, Neighbor newValue) {
+                        if (newValue == null) {
+                            return;
+                        }
+                        Population population = newValue.getPopulation();
+                        placeText.setText(population.getPlace().getName());
+                        countyText.setText(population.getPlace().getCounty());
+                        stateText.setText(population.getPlace().getState().getName());
+                        chart.setData(populationToList(population));
                     }
                 }
         );
+        showNeighbors(search.getValue());
+        search.valueProperty().addListener(new ChangeListener<List<Neighbor>>() {
+            @Override
+            public void changed(ObservableValue<? extends List<Neighbor>> observable, List<Neighbor> oldValue, List<Neighbor> newValue) {
+                showNeighbors(newValue);
+            }
+        });
+        search.setOnFailed(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                Throwable ex = search.getException();
+                Logger.getLogger(Scene3Controller.class.getName()).log(Level.SEVERE, null, ex);
+                listView.setPlaceholder(new Text("Similar places could not be found: " + ex.getMessage()));
+            }
+        });
+    }
+
+    // Lists the places, keeping the selected place selected if it is still listed.
+    private void showNeighbors(List<Neighbor> found) {
+        if (found == null) {
+            return;
+        }
+        Neighbor selected = listView.getSelectionModel().getSelectedItem();
+        listView.getItems().setAll(found);
+        for (Neighbor neighbor : found) {
+            if (selected != null && neighbor.getPopulation().equals(selected.getPopulation())) {
+                listView.getSelectionModel().select(neighbor);
+            }
+        }
     }
 
     @FXML
     private void handleBack(ActionEvent event) throws IOException {
+        search.cancel();
         Scene1Controller scene1Controller = new Scene1Controller(stage);
         FXMLLoader scene1Loader = new FXMLLoader(getClass().getResource("/fxml/Scene1.fxml"));
         scene1Loader.setController(scene1Controller);
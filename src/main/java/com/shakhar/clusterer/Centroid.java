@@ -73,4 +73,16 @@ class Centroid {
     public int getMultiRacialPopulation() {
         return multiRacialPopulation;
     }
+
+    public float[] getComposition() {
+        float total = totalPopulation;
+        return new float[]{
+            whitePopulation / total * 100,
+            blackPopulation / total * 100,
+            americanIndianAndAlaskaNativePopulation / total * 100,
+            asianPopulation / total * 100,
+            nativeHawaiianAndOtherPacificIslanderPopulation / total * 100,
+            otherRacesPopulation / total * 100,
+            multiRacialPopulation / total * 100};
+    }
 }
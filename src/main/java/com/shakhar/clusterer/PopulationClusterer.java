@@ -16,7 +16,9 @@
  */
 package com.shakhar.clusterer;
 
+import com.shakhar.census.DistanceMetric;
 import com.shakhar.census.Population;
+import com.shakhar.util.DistanceKernel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -27,12 +29,20 @@ import java.util.Random;
  */
 public class PopulationClusterer {
 
+    private static final int DIMENSIONS = 7;
+    private static final int BLOCK_SIZE = 1024;
     private final int k;
     private final int maxIterations;
+    private final DistanceMetric metric;
 
     public PopulationClusterer(int k, int maxIterations) {
+        this(k, maxIterations, DistanceMetric.EUCLIDEAN);
+    }
+
+    public PopulationClusterer(int k, int maxIterations, DistanceMetric metric) {
         this.k = k;
         this.maxIterations = maxIterations;
+        this.metric = metric;
     }
 
     private List<Cluster> randomClusters(int k) {
@@ -44,21 +54,46 @@ public class PopulationClusterer {
         return clusters;
     }
 
-    private int assignPopulationsToClusters(List<ClusteredPopulation> populations, List<Cluster> clusters) {
+    // Computes the distances to every centroid a block of populations at a time, then moves every population to its nearest cluster.
+    private int assignPopulationsToClusters(List<ClusteredPopulation> populations, float[] points, float[] columns, List<Cluster> clusters) {
         int count = 0;
-        for (ClusteredPopulation p : populations) {
-            float min = Float.MAX_VALUE;
-            Cluster nearest = null;
-            float dist;
-            for (Cluster c : clusters) {
-                if ((dist = euclideanDistance(p, c.getCentroid())) < min) {
-                    min = dist;
-                    nearest = c;
+        int size = populations.size();
+        int stride = DistanceKernel.stride(size);
+        float[][] centroids = new float[clusters.size()][];
+        for (int c = 0; c < centroids.length; c++) {
+            centroids[c] = clusters.get(c).getCentroid().getComposition();
+            if (columns != null) {
+                metric.transform(centroids[c], 0, centroids[c], 0, DIMENSIONS);
+            }
+        }
+        float[][] distances = new float[centroids.length][BLOCK_SIZE];
+        float[] composition = new float[DIMENSIONS];
+        for (int from = 0; from < size; from += BLOCK_SIZE) {
+            int to = Math.min(size, from + BLOCK_SIZE);
+            for (int c = 0; c < centroids.length; c++) {
+                if (columns != null) {
+                    DistanceKernel.squaredDistances(centroids[c], columns, stride, from, to, distances[c]);
+                } else {
+                    for (int i = from; i < to; i++) {
+                        System.arraycopy(points, i * DIMENSIONS, composition, 0, DIMENSIONS);
+                        distances[c][i - from] = metric.distance(centroids[c], composition);
+                    }
                 }
             }
-            if (nearest != p.getCluster()) {
-                nearest.addPopulation(p);
-                count++;
+            for (int i = from; i < to; i++) {
+                float min = Float.MAX_VALUE;
+                Cluster nearest = null;
+                for (int c = 0; c < centroids.length; c++) {
+                    if (distances[c][i - from] < min) {
+                        min = distances[c][i - from];
+                        nearest = clusters.get(c);
+                    }
+                }
+                ClusteredPopulation p = populations.get(i);
+                if (nearest != p.getCluster()) {
+                    nearest.addPopulation(p);
+                    count++;
+                }
             }
         }
         return count;
@@ -97,35 +132,27 @@ public class PopulationClusterer {
         }
     }
 
-    private float euclideanDistance(Population population1, Centroid population2) {
-        float white1Percent = (float) population1.getWhitePopulation() / population1.getTotalPopulation() * 100;
-        float black1Percent = (float) population1.getBlackPopulation() / population1.getTotalPopulation() * 100;
-        float indian1Percent = (float) population1.getAmericanIndianAndAlaskaNativePopulation() / population1.getTotalPopulation() * 100;
-        float asian1Percent = (float) population1.getAsianPopulation() / population1.getTotalPopulation() * 100;
-        float hawaiian1Percent = (float) population1.getNativeHawaiianAndOtherPacificIslanderPopulation() / population1.getTotalPopulation() * 100;
-        float other1Percent = (float) population1.getOtherRacesPopulation() / population1.getTotalPopulation() * 100;
-        float multi1Percent = (float) population1.getMultiRacialPopulation() / population1.getTotalPopulation() * 100;
-        float white2Percent = (float) population2.getWhitePopulation() / population2.getTotalPopulation() * 100;
-        float black2Percent = (float) population2.getBlackPopulation() / population2.getTotalPopulation() * 100;
-        float indian2Percent = (float) population2.getAmericanIndianAndAlaskaNativePopulation() / population2.getTotalPopulation() * 100;
-        float asian2Percent = (float) population2.getAsianPopulation() / population2.getTotalPopulation() * 100;
-        float hawaiian2Percent = (float) population2.getNativeHawaiianAndOtherPacificIslanderPopulation() / population2.getTotalPopulation() * 100;
-        float other2Percent = (float) population2.getOtherRacesPopulation() / population2.getTotalPopulation() * 100;
-        float multi2Percent = (float) population2.getMultiRacialPopulation() / population2.getTotalPopulation() * 100;
-
-        return (float) Math.sqrt(Math.pow(white1Percent - white2Percent, 2) + Math.pow(black1Percent - black2Percent, 2) + Math.pow(indian1Percent - indian2Percent, 2) + Math.pow(asian1Percent - asian2Percent, 2) + Math.pow(hawaiian1Percent - hawaiian2Percent, 2) + Math.pow(other1Percent - other2Percent, 2) + Math.pow(multi1Percent - multi2Percent, 2));
-    }
-
     public List<Cluster> cluster(List<Population> populations) {
         List<Cluster> clusters = randomClusters(k);
         List<ClusteredPopulation> clusteredPopulations = new ArrayList<>();
+        float[] points = new float[populations.size() * DIMENSIONS];
         for (Population p : populations) {
+            System.arraycopy(p.getComposition(), 0, points, clusteredPopulations.size() * DIMENSIONS, DIMENSIONS);
             clusteredPopulations.add(new ClusteredPopulation(p));
         }
+        // Metrics which are euclidean after a transform use the column kernel over transformed compositions; the others are computed one population at a time.
+        float[] columns = null;
+        if (metric.isTransformable()) {
+            float[] transformed = new float[points.length];
+            for (int i = 0; i < populations.size(); i++) {
+                metric.transform(points, i * DIMENSIONS, transformed, i * DIMENSIONS, DIMENSIONS);
+            }
+            columns = DistanceKernel.toColumns(transformed, DIMENSIONS);
+        }
         int changes;
         int c = 0;
         do {
-            changes = assignPopulationsToClusters(clusteredPopulations, clusters);
+            changes = assignPopulationsToClusters(clusteredPopulations, points, columns, clusters);
             adjustCentroids(clusters);
             c++;
         } while (changes != 0 && c < maxIterations);
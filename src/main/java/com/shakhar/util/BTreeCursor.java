@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Cursor over the entries of a <tt>BTreeMap</tt> written with codecs, in the
+ * order of their keys. Nodes are read from disk as raw bytes into buffers
+ * which are reused for the whole scan, and the current key and value are
+ * exposed as ranges of those bytes. Advancing the cursor decodes nothing and,
+ * once every level of the tree has been visited, allocates nothing.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class BTreeCursor {
+
+    // A node starts with its id, entry count and leaf flag, followed by its children if it is not a leaf.
+    private static final int HEADER_SIZE = 9;
+    private static final int INT_SIZE = 4;
+    private static final int INITIAL_DEPTH = 8;
+
+    private final Disk<?> disk;
+    private final int rootId;
+    // One frame per level of the path from the root to the current node.
+    private byte[][] buffers;
+    private int[] entryCounts;
+    private int[] nextEntries;
+    private int[] positions;
+    private boolean[] leaves;
+    private int depth;
+    private byte[] buffer;
+    private int keyOffset;
+    private int keyLength;
+    private int valueOffset;
+    private int valueLength;
+
+    BTreeCursor(Disk<?> disk, int rootId) {
+        this.disk = disk;
+        this.rootId = rootId;
+        buffers = new byte[INITIAL_DEPTH][];
+        entryCounts = new int[INITIAL_DEPTH];
+        nextEntries = new int[INITIAL_DEPTH];
+        positions = new int[INITIAL_DEPTH];
+        leaves = new boolean[INITIAL_DEPTH];
+        reset();
+    }
+
+    /**
+     * Moves the cursor back before the first entry, so that the cursor and its
+     * buffers can be reused for another scan.
+     */
+    public final void reset() {
+        depth = -1;
+        buffer = null;
+        push(rootId);
+    }
+
+    /**
+     * Advances to the next entry.
+     *
+     * @return <tt>true</tt> if there was a next entry, <tt>false</tt> if every
+     * entry has been visited
+     */
+    public boolean next() {
+        while (depth >= 0) {
+            int entry = nextEntries[depth];
+            if (!leaves[depth] && positions[depth] >= 0) {
+                // Descend into the child preceding the next entry; the position is negated until it is visited.
+                int child = readInt(buffers[depth], HEADER_SIZE + entry * INT_SIZE);
+                positions[depth] = -positions[depth] - 1;
+                push(child);
+                continue;
+            }
+            if (positions[depth] < 0) {
+                positions[depth] = -positions[depth] - 1;
+            }
+            if (entry >= entryCounts[depth]) {
+                depth--;
+                continue;
+            }
+            byte[] node = buffers[depth];
+            int position = positions[depth];
+            keyLength = readInt(node, position);
+            keyOffset = position + INT_SIZE;
+            valueLength = readInt(node, keyOffset + keyLength);
+            valueOffset = keyOffset + keyLength + INT_SIZE;
+            positions[depth] = valueOffset + valueLength;
+            nextEntries[depth] = entry + 1;
+            buffer = node;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the buffer holding the current entry. The buffer is overwritten
+     * as the cursor advances.
+     *
+     * @return the buffer holding the current entry
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the index in the buffer of the encoded key of the current entry.
+     *
+     * @return the index of the encoded key
+     */
+    public int getKeyOffset() {
+        return keyOffset;
+    }
+
+    /**
+     * Returns the length of the encoded key of the current entry.
+     *
+     * @return the length of the encoded key
+     */
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    /**
+     * Returns the index in the buffer of the encoded value of the current
+     * entry.
+     *
+     * @return the index of the encoded value
+     */
+    public int getValueOffset() {
+        return valueOffset;
+    }
+
+    /**
+     * Returns the length of the encoded value of the current entry.
+     *
+     * @return the length of the encoded value
+     */
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    /**
+     * Decodes the key of the current entry with the specified codec.
+     *
+     * @param <K> type of the key
+     * @param codec the codec with which the key was written
+     * @return the decoded key
+     * @throws IOException if the key cannot be decoded
+     */
+    public <K> K decodeKey(Codec<K> codec) throws IOException {
+        return codec.read(new DataInputStream(new ByteArrayInputStream(buffer, keyOffset, keyLength)));
+    }
+
+    /**
+     * Decodes the value of the current entry with the specified codec.
+     *
+     * @param <V> type of the value
+     * @param codec the codec with which the value was written
+     * @return the decoded value
+     * @throws IOException if the value cannot be decoded
+     */
+    public <V> V decodeValue(Codec<V> codec) throws IOException {
+        return codec.read(new DataInputStream(new ByteArrayInputStream(buffer, valueOffset, valueLength)));
+    }
+
+    /**
+     * Reads a big-endian <tt>int</tt> from a buffer, as written by a
+     * <tt>DataOutputStream</tt>.
+     *
+     * @param buffer the buffer
+     * @param offset index of the first byte of the <tt>int</tt>
+     * @return the <tt>int</tt> value
+     */
+    public static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] << 24) | ((buffer[offset + 1] & 0xff) << 16) | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    /**
+     * Reads a big-endian <tt>short</tt> from a buffer, as written by a
+     * <tt>DataOutputStream</tt>.
+     *
+     * @param buffer the buffer
+     * @param offset index of the first byte of the <tt>short</tt>
+     * @return the <tt>short</tt> value
+     */
+    public static short readShort(byte[] buffer, int offset) {
+        return (short) ((buffer[offset] << 8) | (buffer[offset + 1] & 0xff));
+    }
+
+    // Reads a node into the frame below the current one, reusing the buffer of that level.
+    private void push(int nodeId) {
+        depth++;
+        if (depth == buffers.length) {
+            grow();
+        }
+        byte[] node = disk.readElementBytes(nodeId, buffers[depth]);
+        if (node == null) {
+            depth--;
+            return;
+        }
+        buffers[depth] = node;
+        int n = readInt(node, INT_SIZE);
+        boolean leaf = node[2 * INT_SIZE] != 0;
+        entryCounts[depth] = n;
+        leaves[depth] = leaf;
+        nextEntries[depth] = 0;
+        positions[depth] = leaf ? HEADER_SIZE : HEADER_SIZE + (n + 1) * INT_SIZE;
+    }
+
+    private void grow() {
+        int capacity = buffers.length * 2;
+        byte[][] newBuffers = new byte[capacity][];
+        System.arraycopy(buffers, 0, newBuffers, 0, buffers.length);
+        buffers = newBuffers;
+        entryCounts = copyOf(entryCounts, capacity);
+        nextEntries = copyOf(nextEntries, capacity);
+        positions = copyOf(positions, capacity);
+        boolean[] newLeaves = new boolean[capacity];
+        System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+        leaves = newLeaves;
+    }
+
+    private static int[] copyOf(int[] array, int capacity) {
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+}
@@ -16,12 +16,18 @@
  */
 package com.shakhar.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 
 /**
  *
@@ -123,13 +129,91 @@ public class BTreeMap<K extends Comparable<K> & Serializable, V extends Serializ
 
     }
 
+    // Writes a node as its header followed by length prefixed keys and values encoded by the key and value codecs.
+    private static class NodeCodec<K extends Comparable<K> & Serializable, V extends Serializable> implements Codec<Node<K, V>> {
+
+        private final Codec<K> keyCodec;
+        private final Codec<V> valueCodec;
+
+        NodeCodec(Codec<K> keyCodec, Codec<V> valueCodec) {
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        @Override
+        public void write(DataOutputStream out, Node<K, V> node) throws IOException {
+            out.writeInt(node.getId());
+            out.writeInt(node.getN());
+            out.writeBoolean(node.isLeaf());
+            if (!node.isLeaf()) {
+                for (int i = 1; i <= node.getN() + 1; i++) {
+                    out.writeInt(node.getChild(i));
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream field = new DataOutputStream(bytes);
+            for (int i = 1; i <= node.getN(); i++) {
+                Entry<K, V> e = node.getEntry(i);
+                bytes.reset();
+                keyCodec.write(field, e.getKey());
+                field.flush();
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+                bytes.reset();
+                valueCodec.write(field, e.getValue());
+                field.flush();
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+        }
+
+        @Override
+        public Node<K, V> read(DataInputStream in) throws IOException {
+            Node<K, V> node = new Node<>(in.readInt());
+            node.setN(in.readInt());
+            node.setLeaf(in.readBoolean());
+            if (!node.isLeaf()) {
+                for (int i = 1; i <= node.getN() + 1; i++) {
+                    node.setChild(i, in.readInt());
+                }
+            }
+            for (int i = 1; i <= node.getN(); i++) {
+                in.readInt();
+                K key = keyCodec.read(in);
+                in.readInt();
+                node.setEntry(i, new Entry<>(key, valueCodec.read(in)));
+            }
+            return node;
+        }
+    }
+
     final Disk<Node<K, V>> disk;
+    final Codec<Node<K, V>> codec;
     int count;
     final int degree;
     Node<K, V> root;
 
     public BTreeMap(String name, int degree) throws IOException {
-        disk = new Disk<>(name + ".index", name + ".objects", 3);
+        this(name, degree, new SerializationCodec<Node<K, V>>());
+    }
+
+    /**
+     * Constructs a <tt>BTreeMap</tt> whose nodes are written with the
+     * specified codecs instead of Java serialization.
+     *
+     * @param name name of the files backing the tree
+     * @param degree minimum degree of the tree
+     * @param keyCodec codec of the keys
+     * @param valueCodec codec of the values
+     * @throws IOException if the files backing the tree cannot be opened
+     */
+    public BTreeMap(String name, int degree, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        this(name, degree, new NodeCodec<>(keyCodec, valueCodec));
+    }
+
+    private BTreeMap(String name, int degree, Codec<Node<K, V>> codec) throws IOException {
+        this.codec = codec;
+        this.disk = new Disk<>(name + ".index", name + ".objects", 3, codec);
 
         if (disk.isEmpty()) {
             this.degree = degree;
@@ -223,6 +307,7 @@ public class BTreeMap<K extends Comparable<K> & Serializable, V extends Serializ
                 if (e.getKey().compareTo(x.getEntry(i).getKey()) > 0) {
                     i++;
                 }
+                node = read(x.getChild(i));
             }
             insertNonFull(node, e);
         }
@@ -281,6 +366,75 @@ public class BTreeMap<K extends Comparable<K> & Serializable, V extends Serializ
     public void put(K k, V v) {
         put(root, k, v);
     }
+
+    // Returns the largest number of entries a subtree of the specified height can hold.
+    private long capacity(int height) {
+        long capacity = 1;
+        for (int h = 0; h <= height; h++) {
+            capacity *= 2 * degree;
+        }
+        return capacity - 1;
+    }
+
+    // Builds a subtree of the specified height from a range of sorted entries, writing every node once.
+    private Node<K, V> build(List<Entry<K, V>> entries, int lo, int hi, int height) {
+        Node<K, V> x = new Node<>(count++);
+        int n = hi - lo;
+        if (height == 0) {
+            x.setLeaf(true);
+            for (int j = 1; j <= n; j++) {
+                x.setEntry(j, entries.get(lo + j - 1));
+            }
+            x.setN(n);
+        } else {
+            long childCapacity = capacity(height - 1);
+            int c = (int) Math.max(1, (n + 1 + childCapacity) / (childCapacity + 1));
+            int childEntries = n - (c - 1);
+            int position = lo;
+            x.setLeaf(false);
+            for (int j = 1; j <= c; j++) {
+                int size = childEntries / c + (j <= childEntries % c ? 1 : 0);
+                x.setChild(j, build(entries, position, position + size, height - 1).getId());
+                position += size;
+                if (j < c) {
+                    x.setEntry(j, entries.get(position++));
+                }
+            }
+            x.setN(c - 1);
+        }
+        write(x);
+        return x;
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this map. If this
+     * map is empty the tree is bulk loaded bottom-up from the sorted mappings,
+     * so every node is written to disk exactly once.
+     *
+     * @param m mappings to be stored in this map
+     */
+    public void putAll(SortedMap<K, V> m) {
+        if (!isEmpty()) {
+            for (Map.Entry<K, V> e : m.entrySet()) {
+                put(e.getKey(), e.getValue());
+            }
+            return;
+        }
+        if (m.isEmpty()) {
+            return;
+        }
+        List<Entry<K, V>> entries = new ArrayList<>(m.size());
+        for (Map.Entry<K, V> e : m.entrySet()) {
+            entries.add(new Entry<>(e.getKey(), e.getValue()));
+        }
+        int height = 0;
+        while (capacity(height) < entries.size()) {
+            height++;
+        }
+        root = build(entries, 0, entries.size(), height);
+        disk.writeInt(1, count);
+        writeRoot();
+    }
     
     private void traverse(Node<K,V> x) {
         int i;
@@ -331,6 +485,19 @@ public class BTreeMap<K extends Comparable<K> & Serializable, V extends Serializ
         return values;
     }
     
+    /**
+     * Returns a cursor over the encoded values of this map, in the order of
+     * their keys. The map must have been constructed with codecs.
+     *
+     * @return a cursor over the encoded values of this map
+     */
+    public BTreeCursor cursor() {
+        if (!(codec instanceof NodeCodec)) {
+            throw new UnsupportedOperationException("Only maps written with codecs can be scanned by a cursor");
+        }
+        return new BTreeCursor(disk, root.getId());
+    }
+
     public boolean isEmpty() {
         return count == 1 && root.getN() == 0;
     }
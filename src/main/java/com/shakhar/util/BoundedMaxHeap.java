@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+/**
+ * Keeps the <tt>k</tt> rows with the smallest distances among the rows
+ * offered to it, in a binary max-heap of primitive arrays so that the worst
+ * kept row is replaced in logarithmic time. Rows at equal distances are
+ * ordered by row, the smaller row being the better one, so the rows kept do
+ * not depend on the order in which they are offered.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class BoundedMaxHeap {
+
+    private final int[] rows;
+    private final float[] distances;
+    private int size;
+
+    /**
+     * Constructs an empty <tt>BoundedMaxHeap</tt> keeping at most the
+     * specified number of rows.
+     *
+     * @param capacity the number of rows to keep
+     */
+    public BoundedMaxHeap(int capacity) {
+        rows = new int[capacity];
+        distances = new float[capacity];
+    }
+
+    /**
+     * Returns the number of rows kept.
+     *
+     * @return the number of rows kept
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of rows the heap keeps at most.
+     *
+     * @return the number of rows the heap keeps at most
+     */
+    public int capacity() {
+        return rows.length;
+    }
+
+    /**
+     * Returns the distance a row must be below to be kept, which is the
+     * distance of the worst kept row once the heap is full.
+     *
+     * @return the distance a row must be below to be kept
+     */
+    public float bound() {
+        return size < rows.length ? Float.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Returns <tt>true</tt> if a row at the specified distance would be kept.
+     *
+     * @param row the row
+     * @param distance the distance of the row
+     * @return <tt>true</tt> if the row would be kept
+     */
+    public boolean accepts(int row, float distance) {
+        return size < rows.length || worse(distances[0], rows[0], distance, row);
+    }
+
+    /**
+     * Offers a row to the heap. The row is kept if the heap is not full or
+     * the row is better than the worst kept row, which is then dropped.
+     *
+     * @param row the row
+     * @param distance the distance of the row
+     * @return <tt>true</tt> if the row was kept
+     */
+    public boolean offer(int row, float distance) {
+        if (rows.length == 0 || !(distance == distance)) {
+            return false;
+        }
+        if (size < rows.length) {
+            rows[size] = row;
+            distances[size] = distance;
+            siftUp(size++);
+            return true;
+        }
+        if (!worse(distances[0], rows[0], distance, row)) {
+            return false;
+        }
+        rows[0] = row;
+        distances[0] = distance;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Offers every row of another heap to this heap, removing them from the
+     * other heap.
+     *
+     * @param other the heap whose rows are offered
+     */
+    public void offerAll(BoundedMaxHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.rows[i], other.distances[i]);
+        }
+        other.size = 0;
+    }
+
+    /**
+     * Removes every row from the heap, sorts them from the best to the worst
+     * and returns them. The distance of every returned row is stored in
+     * <tt>sortedDistances</tt> at the same index.
+     *
+     * @param sortedDistances receives the distance of every returned row, or
+     * <tt>null</tt>
+     * @return the rows kept, from the best to the worst
+     */
+    public int[] drain(float[] sortedDistances) {
+        int[] sorted = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            sorted[i] = rows[0];
+            if (sortedDistances != null) {
+                sortedDistances[i] = distances[0];
+            }
+            size--;
+            rows[0] = rows[size];
+            distances[0] = distances[size];
+            siftDown(0);
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the rows kept, sorted from the best to the worst, without
+     * removing them from the heap. The distance of every returned row is
+     * stored in <tt>sortedDistances</tt> at the same index.
+     *
+     * @param sortedDistances receives the distance of every returned row, or
+     * <tt>null</tt>
+     * @return the rows kept, from the best to the worst
+     */
+    public int[] sorted(float[] sortedDistances) {
+        BoundedMaxHeap copy = new BoundedMaxHeap(rows.length);
+        System.arraycopy(rows, 0, copy.rows, 0, size);
+        System.arraycopy(distances, 0, copy.distances, 0, size);
+        copy.size = size;
+        return copy.drain(sortedDistances);
+    }
+
+    // Returns true if the first row is worse than the second one.
+    private static boolean worse(float distance1, int row1, float distance2, int row2) {
+        return distance1 > distance2 || (distance1 == distance2 && row1 > row2);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(distances[i], rows[i], distances[parent], rows[parent])) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int worst = left;
+            int right = left + 1;
+            if (right < size && worse(distances[right], rows[right], distances[left], rows[left])) {
+                worst = right;
+            }
+            if (!worse(distances[worst], rows[worst], distances[i], rows[i])) {
+                return;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+        float distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+}
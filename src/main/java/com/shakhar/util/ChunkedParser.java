@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a line oriented <tt>char</tt> array in parallel. The array is split
+ * into chunks at line boundaries, every chunk is parsed by a
+ * <tt>ChunkHandler</tt> on a <tt>ForkJoinPool</tt> into its own result, and
+ * the results are returned in the order of the chunks so that callers can
+ * merge them deterministically.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class ChunkedParser {
+
+    /**
+     * Parses one chunk of the array.
+     *
+     * @param <R> type of the result of parsing a chunk
+     */
+    public interface ChunkHandler<R> {
+
+        /**
+         * Parses the records in a range of the array. The range starts at the
+         * beginning of a line and ends at the end of a line.
+         *
+         * @param buffer the array being parsed
+         * @param offset index of the first character of the chunk
+         * @param length number of characters in the chunk
+         * @return the result of parsing the chunk
+         */
+        R parse(char[] buffer, int offset, int length);
+    }
+
+    private final ForkJoinPool pool;
+    private final int minChunkLength;
+
+    /**
+     * Constructs a <tt>ChunkedParser</tt>.
+     *
+     * @param pool the pool on which chunks are parsed
+     * @param minChunkLength the number of characters below which an input is
+     * not split any further
+     */
+    public ChunkedParser(ForkJoinPool pool, int minChunkLength) {
+        this.pool = pool;
+        this.minChunkLength = minChunkLength;
+    }
+
+    /**
+     * Parses a range of the specified array in parallel.
+     *
+     * @param <R> type of the result of parsing a chunk
+     * @param buffer the array to be parsed
+     * @param offset index of the first character of the range
+     * @param length number of characters in the range
+     * @param handler the parser of a single chunk
+     * @return the results of every chunk, in the order of the chunks
+     */
+    public <R> List<R> parse(final char[] buffer, int offset, int length, final ChunkHandler<R> handler) {
+        int[] boundaries = split(buffer, offset, offset + length);
+        final List<RecursiveTask<R>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.length; i++) {
+            final int start = boundaries[i];
+            final int end = boundaries[i + 1];
+            tasks.add(new RecursiveTask<R>() {
+                @Override
+                protected R compute() {
+                    return handler.parse(buffer, start, end - start);
+                }
+            });
+        }
+        return pool.invoke(new RecursiveTask<List<R>>() {
+            @Override
+            protected List<R> compute() {
+                List<R> results = new ArrayList<>();
+                for (RecursiveTask<R> task : ForkJoinTask.invokeAll(tasks)) {
+                    results.add(task.join());
+                }
+                return results;
+            }
+        });
+    }
+
+    // Returns the chunk boundaries of a range. Every boundary but the last one is the start of a line.
+    private int[] split(char[] buffer, int start, int end) {
+        int chunks = Math.max(1, Math.min(pool.getParallelism() * 4, (end - start) / Math.max(1, minChunkLength)));
+        int[] boundaries = new int[chunks + 1];
+        int count = 0;
+        boundaries[count++] = start;
+        for (int i = 1; i < chunks; i++) {
+            int boundary = Math.max(start + (int) ((long) (end - start) * i / chunks), boundaries[count - 1] + 1);
+            while (boundary < end && buffer[boundary - 1] != '\n') {
+                boundary++;
+            }
+            if (boundary < end && boundary > boundaries[count - 1]) {
+                boundaries[count++] = boundary;
+            }
+        }
+        boundaries[count++] = end;
+        int[] trimmed = new int[count];
+        System.arraycopy(boundaries, 0, trimmed, 0, count);
+        return trimmed;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary encoding of objects stored by <tt>Disk</tt>.
+ *
+ * @author Shakhar Dasgupta
+ * @param <E> type of objects encoded
+ */
+public interface Codec<E> {
+
+    /**
+     * Writes the specified object to the stream.
+     *
+     * @param out the stream to write to
+     * @param element the object to be written
+     * @throws IOException if the object cannot be written
+     */
+    void write(DataOutputStream out, E element) throws IOException;
+
+    /**
+     * Reads an object written by <tt>write</tt> from the stream.
+     *
+     * @param in the stream to read from
+     * @return the object read
+     * @throws IOException if the object cannot be read
+     */
+    E read(DataInputStream in) throws IOException;
+}
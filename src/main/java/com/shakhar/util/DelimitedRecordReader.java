@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+/**
+ * Reader of delimiter separated records held in a <tt>char</tt> array. The
+ * reader does not copy the records it reads. Fields are exposed as slices of
+ * the array and are only turned into <tt>String</tt>s when asked for, while
+ * integers are parsed in place. Empty lines are skipped, and both
+ * <tt>\n</tt> and <tt>\r\n</tt> line endings are accepted.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class DelimitedRecordReader {
+
+    private static final int INITIAL_FIELD_CAPACITY = 16;
+
+    private final char[] buffer;
+    private final int end;
+    private final char delimiter;
+    private int position;
+    private int fieldCount;
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+
+    /**
+     * Constructs a <tt>DelimitedRecordReader</tt> over the whole of the
+     * specified array.
+     *
+     * @param buffer the array holding the records
+     * @param delimiter the character separating the fields of a record
+     */
+    public DelimitedRecordReader(char[] buffer, char delimiter) {
+        this(buffer, 0, buffer.length, delimiter);
+    }
+
+    /**
+     * Constructs a <tt>DelimitedRecordReader</tt> over a range of the
+     * specified array.
+     *
+     * @param buffer the array holding the records
+     * @param offset index of the first character of the range
+     * @param length number of characters in the range
+     * @param delimiter the character separating the fields of a record
+     */
+    public DelimitedRecordReader(char[] buffer, int offset, int length, char delimiter) {
+        this.buffer = buffer;
+        this.end = offset + length;
+        this.delimiter = delimiter;
+        position = offset;
+        fieldStarts = new int[INITIAL_FIELD_CAPACITY];
+        fieldEnds = new int[INITIAL_FIELD_CAPACITY];
+    }
+
+    /**
+     * Advances to the next non-empty record.
+     *
+     * @return <tt>true</tt> if there was a next record, <tt>false</tt> if the
+     * end of the range has been reached
+     */
+    public boolean next() {
+        while (position < end && (buffer[position] == '\n' || buffer[position] == '\r')) {
+            position++;
+        }
+        if (position >= end) {
+            fieldCount = 0;
+            return false;
+        }
+        fieldCount = 0;
+        int start = position;
+        while (true) {
+            char c = position < end ? buffer[position] : '\n';
+            if (c == delimiter || c == '\n' || c == '\r') {
+                addField(start, position);
+                if (position < end) {
+                    position++;
+                }
+                if (c != delimiter) {
+                    return true;
+                }
+                start = position;
+            } else {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of fields in the current record.
+     *
+     * @return the number of fields in the current record
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns the index in the array just past the current record.
+     *
+     * @return the index in the array just past the current record
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the number of characters in the specified field of the current
+     * record.
+     *
+     * @param field index of the field
+     * @return the number of characters in the specified field
+     */
+    public int getLength(int field) {
+        checkField(field);
+        return fieldEnds[field] - fieldStarts[field];
+    }
+
+    /**
+     * Returns the specified field of the current record as a <tt>String</tt>.
+     *
+     * @param field index of the field
+     * @return the specified field as a <tt>String</tt>
+     */
+    public String getString(int field) {
+        checkField(field);
+        return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+    }
+
+    /**
+     * Parses the specified field of the current record as a non-negative
+     * decimal integer without materializing it. Leading zeros, as in FIPS
+     * codes, are accepted.
+     *
+     * @param field index of the field
+     * @return the value of the specified field
+     * @throws NumberFormatException if the field is empty or contains a
+     * character which is not a decimal digit
+     */
+    public int getInt(int field) {
+        checkField(field);
+        return parseInt(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Parses a non-negative decimal integer from a range of a <tt>char</tt>
+     * array.
+     *
+     * @param buffer the array holding the digits
+     * @param start index of the first digit
+     * @param end index just past the last digit
+     * @return the parsed value
+     * @throws NumberFormatException if the range is empty or contains a
+     * character which is not a decimal digit
+     */
+    public static int parseInt(char[] buffer, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Empty field");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + new String(buffer, start, end - start) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            int[] starts = new int[fieldCount * 2];
+            int[] ends = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+            fieldStarts = starts;
+            fieldEnds = ends;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + field + " of a record with " + fieldCount + " fields");
+        }
+    }
+}
@@ -18,16 +18,20 @@ package com.shakhar.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Stores elements in a pair of files, an index of positions and the encoded
+ * elements. Every read and write seeks the shared files before accessing
+ * them, so they are synchronized, and a <tt>Disk</tt> may be read from
+ * several threads, such as a background search and the application thread.
  *
  * @author Shakhar Dasgupta
  * @param <E> type of objects stored
@@ -41,16 +45,22 @@ public class Disk<E extends Serializable> {
     private final RandomAccessFile indexFile;
     private final RandomAccessFile objectsFile;
     private final int integers;
+    private final Codec<E> codec;
     private long objectsEnd;
 
     public Disk(String indexFilename, String objectsFilename, int integers) throws FileNotFoundException, IOException {
+        this(indexFilename, objectsFilename, integers, new SerializationCodec<E>());
+    }
+
+    public Disk(String indexFilename, String objectsFilename, int integers, Codec<E> codec) throws FileNotFoundException, IOException {
         this.indexFile = new RandomAccessFile(indexFilename, "rw");
         this.objectsFile = new RandomAccessFile(objectsFilename, "rw");
         this.integers = integers;
+        this.codec = codec;
         objectsEnd = objectsFile.length() == 0 ? objectsEnd = OBJECTS_OFFSET : objectsFile.length();
     }
 
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         try {
             return indexFile.length() == 0 && objectsFile.length() == 0;
         } catch (IOException ex) {
@@ -59,7 +69,7 @@ public class Disk<E extends Serializable> {
         }
     }
 
-    public void writeInt(int i, int n) {
+    public synchronized void writeInt(int i, int n) {
         try {
             indexFile.seek(i * INT_SIZE);
             indexFile.writeInt(n);
@@ -68,7 +78,7 @@ public class Disk<E extends Serializable> {
         }
     }
 
-    public int readInt(int i) {
+    public synchronized int readInt(int i) {
         try {
             indexFile.seek(i * INT_SIZE);
             return indexFile.readInt();
@@ -78,7 +88,7 @@ public class Disk<E extends Serializable> {
         }
     }
 
-    public void writeElement(int index, E element) {
+    public synchronized void writeElement(int index, E element) {
         try {
             indexFile.seek(integers * INT_SIZE + index * POSITION_SIZE);
             indexFile.writeLong(objectsEnd);
@@ -88,7 +98,7 @@ public class Disk<E extends Serializable> {
         }
     }
 
-    public E readElement(int index) {
+    public synchronized E readElement(int index) {
         try {
             int position = integers * INT_SIZE + index * POSITION_SIZE;
             if (position < indexFile.length()) {
@@ -97,7 +107,42 @@ public class Disk<E extends Serializable> {
             } else {
                 return null;
             }
-        } catch (IOException | ClassNotFoundException ex) {
+        } catch (IOException ex) {
+            Logger.getLogger(Disk.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the encoded bytes of the element at the specified index without
+     * decoding them. The bytes are read into the specified buffer if it is
+     * large enough, so a scan can reuse a single buffer for every element.
+     *
+     * @param index index of the element
+     * @param buffer buffer to read the bytes into, or <tt>null</tt>
+     * @return the buffer holding the encoded element from index 0, which is a
+     * new one if <tt>buffer</tt> was too small, or <tt>null</tt> if there is no
+     * element at the index
+     */
+    public synchronized byte[] readElementBytes(int index, byte[] buffer) {
+        try {
+            int position = integers * INT_SIZE + index * POSITION_SIZE;
+            if (position >= indexFile.length()) {
+                return null;
+            }
+            indexFile.seek(position);
+            long objectPosition = indexFile.readLong();
+            if (objectPosition == 0) {
+                return null;
+            }
+            objectsFile.seek(objectPosition);
+            int size = objectsFile.readInt();
+            if (buffer == null || buffer.length < size) {
+                buffer = new byte[size];
+            }
+            objectsFile.readFully(buffer, 0, size);
+            return buffer;
+        } catch (IOException ex) {
             Logger.getLogger(Disk.class.getName()).log(Level.SEVERE, null, ex);
             return null;
         }
@@ -106,24 +151,22 @@ public class Disk<E extends Serializable> {
     private int writeObject(long position, E element) throws IOException {
         objectsFile.seek(position);
         ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
-        try (ObjectOutputStream objectOutput = new ObjectOutputStream(byteArrayOutput)) {
-            objectOutput.writeObject(element);
+        try (DataOutputStream dataOutput = new DataOutputStream(byteArrayOutput)) {
+            codec.write(dataOutput, element);
         }
         objectsFile.writeInt(byteArrayOutput.size());
         objectsFile.write(byteArrayOutput.toByteArray());
         return 4 + byteArrayOutput.size();
     }
 
-    private E readObject(long position) throws IOException, ClassNotFoundException {
+    private E readObject(long position) throws IOException {
         if (position == 0) {
             return null;
         }
         objectsFile.seek(position);
         int size = objectsFile.readInt();
         byte[] bytes = new byte[size];
-        objectsFile.read(bytes);
-        ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes));
-        E element = (E) objectInput.readObject();
-        return element;
+        objectsFile.readFully(bytes);
+        return codec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
     }
 }
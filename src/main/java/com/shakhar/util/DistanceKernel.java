@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+/**
+ * Squared euclidean distance kernels from one query to many points. Points
+ * are laid out by column: the coordinates of every point along a dimension
+ * are contiguous, and the columns follow each other at a fixed stride which
+ * is padded to a multiple of <tt>LANES</tt>. The block kernel walks one
+ * column at a time with a branch free loop over contiguous floats, which the
+ * JIT compiler turns into SIMD instructions on hosts which have them. The
+ * scalar kernel computes the distance of one point at a time and is kept as
+ * the reference the block kernel is verified against.
+ * <p>
+ * Columns can also be quantized to one unsigned byte per coordinate, a
+ * quarter of the memory of floats, and scanned by an integer kernel. The
+ * quantized distances are approximate: rounding moves a coordinate by at most
+ * half a step, so the root of a quantized distance between two quantized
+ * points is within <tt>sqrt(dimensions)</tt> steps of the exact distance
+ * scaled to steps, which callers use to rerank candidates exactly.
+ * <p>
+ * Distances which are costlier than the squared euclidean distance can be
+ * computed against a bound, such as the distance of the k-th nearest point
+ * found so far, adding the terms of the dimensions where the query is
+ * largest first and abandoning as soon as the partial sum exceeds the bound;
+ * <tt>byMagnitude()</tt> gives that order. Most points of a scan are far
+ * from the query, and compositions are dominated by one or two shares, so
+ * the bound usually trips after one or two terms. The squared euclidean
+ * distance itself is cheaper to finish than to test against a bound.
+ *
+ * @author Shakhar Dasgupta
+ */
+public final class DistanceKernel {
+
+    /**
+     * Number of floats the stride of a column is padded to a multiple of,
+     * the width of the widest SIMD registers in floats.
+     */
+    public static final int LANES = 16;
+
+    /**
+     * Factor applied to a bound before a partial sum is compared with it.
+     * Summing the terms in another order than the full distance rounds
+     * differently, by far less than this factor, so a point is only
+     * abandoned if its full distance is certainly above the bound.
+     */
+    public static final float ABANDON_SLACK = 1.00001f;
+
+    private DistanceKernel() {
+    }
+
+    /**
+     * Returns the stride of the columns of the specified number of points,
+     * which is the number of points padded to a multiple of <tt>LANES</tt>.
+     *
+     * @param size the number of points
+     * @return the stride of the columns
+     */
+    public static int stride(int size) {
+        return (size + LANES - 1) / LANES * LANES;
+    }
+
+    /**
+     * Lays out points stored point after point into columns.
+     *
+     * @param points the coordinates of the points, point after point
+     * @param dimensions the number of dimensions of a point
+     * @return the coordinates of the points, column after column, at the
+     * stride returned by <tt>stride()</tt>
+     */
+    public static float[] toColumns(float[] points, int dimensions) {
+        int size = points.length / dimensions;
+        int stride = stride(size);
+        float[] columns = new float[dimensions * stride];
+        for (int i = 0; i < size; i++) {
+            for (int d = 0; d < dimensions; d++) {
+                columns[d * stride + i] = points[i * dimensions + d];
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Computes the squared euclidean distances from a query to a block of
+     * points laid out in columns.
+     *
+     * @param query the coordinates of the query
+     * @param columns the coordinates of the points, column after column
+     * @param stride the stride of the columns
+     * @param from the first point of the block
+     * @param to the point after the last point of the block
+     * @param distances receives the distance of every point of the block,
+     * from index 0
+     */
+    public static void squaredDistances(float[] query, float[] columns, int stride, int from, int to, float[] distances) {
+        int length = to - from;
+        float q = query[0];
+        for (int i = 0; i < length; i++) {
+            float diff = columns[from + i] - q;
+            distances[i] = diff * diff;
+        }
+        for (int d = 1; d < query.length; d++) {
+            int base = d * stride + from;
+            q = query[d];
+            for (int i = 0; i < length; i++) {
+                float diff = columns[base + i] - q;
+                distances[i] += diff * diff;
+            }
+        }
+    }
+
+    /**
+     * Quantizes coordinates to unsigned bytes, rounding every coordinate
+     * multiplied by a scale to the nearest integer between 0 and 255.
+     *
+     * @param values the coordinates, laid out in any order
+     * @param scale the number of steps per unit of a coordinate
+     * @return the quantized coordinates, in the same order
+     */
+    public static byte[] quantize(float[] values, float scale) {
+        byte[] quantized = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            quantized[i] = (byte) Math.max(0, Math.min(255, Math.round(values[i] * scale)));
+        }
+        return quantized;
+    }
+
+    /**
+     * Computes the squared euclidean distances, in quantization steps, from a
+     * quantized query to a block of quantized points laid out in columns.
+     *
+     * @param query the quantized coordinates of the query
+     * @param columns the quantized coordinates of the points, column after
+     * column
+     * @param stride the stride of the columns
+     * @param from the first point of the block
+     * @param to the point after the last point of the block
+     * @param distances receives the distance of every point of the block,
+     * from index 0
+     */
+    public static void squaredDistances(byte[] query, byte[] columns, int stride, int from, int to, int[] distances) {
+        int length = to - from;
+        int q = query[0] & 0xff;
+        for (int i = 0; i < length; i++) {
+            int diff = (columns[from + i] & 0xff) - q;
+            distances[i] = diff * diff;
+        }
+        for (int d = 1; d < query.length; d++) {
+            int base = d * stride + from;
+            q = query[d] & 0xff;
+            for (int i = 0; i < length; i++) {
+                int diff = (columns[base + i] & 0xff) - q;
+                distances[i] += diff * diff;
+            }
+        }
+    }
+
+    /**
+     * Computes the squared euclidean distance between two points stored
+     * point after point.
+     *
+     * @param a the coordinates of the first point
+     * @param aOffset index of the first coordinate of the first point
+     * @param b the coordinates of the second point
+     * @param bOffset index of the first coordinate of the second point
+     * @param dimensions the number of dimensions of a point
+     * @return the squared euclidean distance
+     */
+    public static float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int dimensions) {
+        float sum = 0;
+        for (int d = 0; d < dimensions; d++) {
+            float diff = a[aOffset + d] - b[bOffset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the dimensions of a query ordered by descending magnitude of
+     * its coordinates, the order in which the terms of a bounded distance are
+     * added.
+     *
+     * @param query the coordinates of the query
+     * @param offset index of the first coordinate of the query
+     * @param dimensions the number of dimensions of a point
+     * @return the dimensions, from the largest coordinate of the query
+     */
+    public static int[] byMagnitude(float[] query, int offset, int dimensions) {
+        int[] order = new int[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            int i = d;
+            while (i > 0 && Math.abs(query[offset + order[i - 1]]) < Math.abs(query[offset + d])) {
+                order[i] = order[i - 1];
+                i--;
+            }
+            order[i] = d;
+        }
+        return order;
+    }
+}
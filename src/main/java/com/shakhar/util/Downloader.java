@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads URLs into a <tt>Map</tt> backed cache. The <tt>ETag</tt> and
+ * <tt>Last-Modified</tt> validators of every download are kept in the cache
+ * next to the content so that a refresh of an unchanged URL is a single
+ * conditional request answered with <tt>304 Not Modified</tt>. Transfers are
+ * requested gzip encoded and are spooled to a partial file, so an interrupted
+ * transfer is resumed with a <tt>Range</tt> request instead of starting over.
+ * A resume the server cannot honour, such as a range past the end of a
+ * partial file which was complete, discards the partial file and starts
+ * over.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class Downloader {
+
+    private static final String ETAG_SUFFIX = "#ETag";
+    private static final String LAST_MODIFIED_SUFFIX = "#Last-Modified";
+    private static final String PARTIAL_VALIDATOR_SUFFIX = "#Partial-Validator";
+    private static final String PARTIAL_ENCODING_SUFFIX = "#Partial-Encoding";
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+    private static final String GZIP = "gzip";
+    private static final String IDENTITY = "identity";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final Map<String, String> cache;
+    private final String partialFilePrefix;
+
+    /**
+     * Constructs a <tt>Downloader</tt> which stores downloaded content in the
+     * specified cache.
+     *
+     * @param cache the cache in which content and validators are stored
+     * @param partialFilePrefix prefix of the files where incomplete transfers
+     * are spooled
+     */
+    public Downloader(Map<String, String> cache, String partialFilePrefix) {
+        this.cache = cache;
+        this.partialFilePrefix = partialFilePrefix;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the content of the specified URL is in the
+     * cache.
+     *
+     * @param url the URL to be tested
+     * @return <tt>true</tt> if the content of the specified URL is in the
+     * cache
+     */
+    public boolean isCached(String url) {
+        return cache.containsKey(url);
+    }
+
+    /**
+     * Downloads the specified URL into the cache unless the cached copy is
+     * still current.
+     *
+     * @param url the URL to be downloaded
+     * @return <tt>true</tt> if the cached content changed, <tt>false</tt> if
+     * the server reported the cached copy as not modified
+     * @throws IOException if there is problem connecting to the server or the
+     * server responds with an error
+     */
+    public boolean fetch(String url) throws IOException {
+        File partialFile = new File(partialFilePrefix + "." + Integer.toHexString(url.hashCode()) + PARTIAL_FILE_SUFFIX);
+        String partialValidator = cache.get(url + PARTIAL_VALIDATOR_SUFFIX);
+        if (partialValidator == null || partialValidator.isEmpty() || partialFile.length() == 0) {
+            return fetch(url, partialFile, 0, null);
+        }
+        try {
+            return fetch(url, partialFile, partialFile.length(), partialValidator);
+        } catch (ResumeException ex) {
+            // The partial file cannot be resumed, so it is discarded and the transfer starts over.
+            partialFile.delete();
+            cache.put(url + PARTIAL_VALIDATOR_SUFFIX, "");
+            return fetch(url, partialFile, 0, null);
+        }
+    }
+
+    // Thrown when the server refuses or mangles the resume of a partial file.
+    private static class ResumeException extends IOException {
+
+        ResumeException(String message) {
+            super(message);
+        }
+    }
+
+    // Downloads the URL into the partial file, resuming from the specified position if it is not 0, then moves it into the cache.
+    private boolean fetch(String url, File partialFile, long resumeFrom, String partialValidator) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Accept-Encoding", GZIP);
+        if (cache.containsKey(url)) {
+            String etag = cache.get(url + ETAG_SUFFIX);
+            String lastModified = cache.get(url + LAST_MODIFIED_SUFFIX);
+            if (etag != null && !etag.isEmpty()) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null && !lastModified.isEmpty()) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+        if (resumeFrom > 0) {
+            connection.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+            connection.setRequestProperty("If-Range", partialValidator);
+        }
+
+        String etag;
+        String lastModified;
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            }
+            if (status == HttpURLConnection.HTTP_NO_CONTENT) {
+                // Queries matching no data, such as the Census API for island areas, are answered with no content.
+                return !"".equals(cache.put(url, ""));
+            }
+            if (status == HTTP_RANGE_NOT_SATISFIABLE && resumeFrom > 0) {
+                throw new ResumeException("Range from " + resumeFrom + " not satisfiable for " + url);
+            }
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                if (resumeFrom == 0) {
+                    throw new IOException("Unexpected partial content for " + url);
+                }
+                if (!contentRangeStartsAt(connection.getHeaderField("Content-Range"), resumeFrom)) {
+                    throw new ResumeException("Unexpected partial content for " + url);
+                }
+            } else if (status == HttpURLConnection.HTTP_OK) {
+                resumeFrom = 0;
+                String encoding = connection.getContentEncoding();
+                String validator = validatorOf(connection);
+                cache.put(url + PARTIAL_ENCODING_SUFFIX, encoding == null ? IDENTITY : encoding);
+                cache.put(url + PARTIAL_VALIDATOR_SUFFIX, validator == null ? "" : validator);
+            } else {
+                throw new IOException("Server returned HTTP response code " + status + " for " + url);
+            }
+            etag = connection.getHeaderField("ETag");
+            lastModified = connection.getHeaderField("Last-Modified");
+
+            try (InputStream in = connection.getInputStream();
+                    RandomAccessFile out = new RandomAccessFile(partialFile, "rw")) {
+                out.setLength(resumeFrom);
+                out.seek(resumeFrom);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                long expected = connection.getContentLengthLong();
+                if (expected >= 0 && out.length() != resumeFrom + expected) {
+                    throw new IOException("Incomplete transfer of " + url + ", " + (out.length() - resumeFrom) + " of " + expected + " bytes received");
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        byte[] content = decode(readFully(partialFile), cache.get(url + PARTIAL_ENCODING_SUFFIX));
+        cache.put(url, new String(content));
+        cache.put(url + ETAG_SUFFIX, etag == null ? "" : etag);
+        cache.put(url + LAST_MODIFIED_SUFFIX, lastModified == null ? "" : lastModified);
+        cache.put(url + PARTIAL_VALIDATOR_SUFFIX, "");
+        partialFile.delete();
+        return true;
+    }
+
+    // Returns the strongest validator usable in an If-Range header, or null if the response carries none.
+    private static String validatorOf(HttpURLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    private static boolean contentRangeStartsAt(String contentRange, long position) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return false;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return false;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim()) == position;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    private static byte[] decode(byte[] bytes, String encoding) throws IOException {
+        if (!GZIP.equalsIgnoreCase(encoding)) {
+            return bytes;
+        }
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(bytes.length * 4);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                decoded.write(buffer, 0, read);
+            }
+        }
+        return decoded.toByteArray();
+    }
+}
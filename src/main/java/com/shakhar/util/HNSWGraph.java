@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph over points of a fixed number of
+ * dimensions, answering approximate nearest neighbour queries under the
+ * euclidean distance. Every row is a node on level 0 and, with a probability
+ * falling geometrically, on the levels above it. A query descends greedily
+ * from the entry point through the upper levels and then explores level 0
+ * keeping the <tt>ef</tt> best rows found, so a larger <tt>ef</tt> trades
+ * time for recall.
+ * <p>
+ * A row has at most <tt>2 * m</tt> neighbours on level 0 and <tt>m</tt> on
+ * the levels above, chosen by the neighbour selection heuristic of Malkov and
+ * Yashunin, which prefers neighbours in different directions. The links are
+ * held in flat arrays, every list starting with its length, so the graph is
+ * fully described by the levels and links of the rows and can be persisted as
+ * such. The graph does not own the points; they are read from the array they
+ * were built from. The build is single threaded and seeded, so the same
+ * points give the same graph.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class HNSWGraph {
+
+    private final int dimensions;
+    private final float[] points;
+    private final int m;
+    private final byte[] levels;
+    // Level 0 lists, 2 * m + 1 ints per row.
+    private final int[] baseLinks;
+    // Index in upperLinks of the level 1 list of every row, or -1 for rows on level 0 only.
+    private final int[] upperOffsets;
+    // Lists of levels 1 and above, m + 1 ints per level of a row.
+    private final int[] upperLinks;
+    private int entryPoint;
+    private int maxLevel;
+    private int[] visited;
+    private int visitMark;
+
+    /**
+     * Constructs an <tt>HNSWGraph</tt> from the arrays of a built graph, as
+     * returned by its getters.
+     *
+     * @param dimensions the number of dimensions of a point
+     * @param points the coordinates of the points, row after row
+     * @param m the number of neighbours of a row on the upper levels
+     * @param levels the top level of every row
+     * @param baseLinks the level 0 lists
+     * @param upperOffsets the index of the level 1 list of every row
+     * @param upperLinks the lists of the upper levels
+     * @param entryPoint the row the queries start from
+     */
+    public HNSWGraph(int dimensions, float[] points, int m, byte[] levels, int[] baseLinks, int[] upperOffsets, int[] upperLinks, int entryPoint) {
+        this.dimensions = dimensions;
+        this.points = points;
+        this.m = m;
+        this.levels = levels;
+        this.baseLinks = baseLinks;
+        this.upperOffsets = upperOffsets;
+        this.upperLinks = upperLinks;
+        this.entryPoint = entryPoint;
+        maxLevel = levels.length == 0 ? -1 : levels[entryPoint];
+        visited = new int[levels.length];
+    }
+
+    /**
+     * Builds an <tt>HNSWGraph</tt> over the specified points.
+     *
+     * @param dimensions the number of dimensions of a point
+     * @param points the coordinates of the points, row after row
+     * @param m the number of neighbours of a row on the upper levels
+     * @param efConstruction the number of candidates explored when the
+     * neighbours of a row are chosen
+     * @param seed the seed of the random levels and insertion order
+     * @return the built graph
+     */
+    public static HNSWGraph build(int dimensions, float[] points, int m, int efConstruction, long seed) {
+        int size = points.length / dimensions;
+        Random random = new Random(seed);
+        double levelFactor = 1 / Math.log(m);
+        byte[] levels = new byte[size];
+        int[] upperOffsets = new int[size];
+        int upperSize = 0;
+        for (int row = 0; row < size; row++) {
+            levels[row] = (byte) Math.min(Byte.MAX_VALUE, (int) (-Math.log(1 - random.nextDouble()) * levelFactor));
+            upperOffsets[row] = levels[row] == 0 ? -1 : upperSize;
+            upperSize += levels[row] * (m + 1);
+        }
+        HNSWGraph graph = new HNSWGraph(dimensions, points, m, levels, new int[size * (2 * m + 1)], upperOffsets, new int[upperSize], 0);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        graph.maxLevel = -1;
+        for (int row : order) {
+            graph.insert(row, efConstruction);
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the number of rows in the graph.
+     *
+     * @return the number of rows in the graph
+     */
+    public int size() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the number of neighbours of a row on the upper levels.
+     *
+     * @return the number of neighbours of a row on the upper levels
+     */
+    public int getM() {
+        return m;
+    }
+
+    /**
+     * Returns the top level of every row.
+     *
+     * @return the top level of every row
+     */
+    public byte[] getLevels() {
+        return levels;
+    }
+
+    /**
+     * Returns the level 0 lists, <tt>2 * m + 1</tt> ints per row, every list
+     * starting with its length.
+     *
+     * @return the level 0 lists
+     */
+    public int[] getBaseLinks() {
+        return baseLinks;
+    }
+
+    /**
+     * Returns the index in the upper lists of the level 1 list of every row,
+     * or -1 for rows which are only on level 0.
+     *
+     * @return the index of the level 1 list of every row
+     */
+    public int[] getUpperOffsets() {
+        return upperOffsets;
+    }
+
+    /**
+     * Returns the lists of the upper levels, <tt>m + 1</tt> ints per level of
+     * a row, every list starting with its length.
+     *
+     * @return the lists of the upper levels
+     */
+    public int[] getUpperLinks() {
+        return upperLinks;
+    }
+
+    /**
+     * Returns the row the queries start from, which is on the top level.
+     *
+     * @return the row the queries start from
+     */
+    public int getEntryPoint() {
+        return entryPoint;
+    }
+
+    /**
+     * Returns the rows nearest to the specified query found by exploring
+     * level 0 with <tt>ef</tt> candidates, from the nearest to the farthest.
+     *
+     * @param query the coordinates of the query
+     * @param ef the number of candidates kept while exploring level 0
+     * @param squaredDistances receives the squared distance of every
+     * returned row, or <tt>null</tt>
+     * @return at most <tt>ef</tt> rows
+     */
+    public synchronized int[] nearest(float[] query, int ef, float[] squaredDistances) {
+        if (maxLevel < 0) {
+            return new int[0];
+        }
+        int entry = entryPoint;
+        for (int level = maxLevel; level > 0; level--) {
+            entry = greedy(query, 0, entry, level);
+        }
+        return searchLevel(query, 0, entry, Math.max(1, ef), 0).drain(squaredDistances);
+    }
+
+    private void insert(int row, int efConstruction) {
+        int level = levels[row];
+        if (maxLevel < 0) {
+            entryPoint = row;
+            maxLevel = level;
+            return;
+        }
+        int offset = row * dimensions;
+        int entry = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            entry = greedy(points, offset, entry, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            BoundedMaxHeap found = searchLevel(points, offset, entry, efConstruction, l);
+            float[] distances = new float[found.size()];
+            int[] candidates = found.drain(distances);
+            int[] links = l == 0 ? baseLinks : upperLinks;
+            int list = listOffset(row, l);
+            links[list] = select(candidates, distances, candidates.length, l == 0 ? 2 * m : m, links, list);
+            for (int i = 1; i <= links[list]; i++) {
+                connect(links[list + i], row, l);
+            }
+            entry = candidates[0];
+        }
+        if (level > maxLevel) {
+            entryPoint = row;
+            maxLevel = level;
+        }
+    }
+
+    private int listOffset(int row, int level) {
+        return level == 0 ? row * (2 * m + 1) : upperOffsets[row] + (level - 1) * (m + 1);
+    }
+
+    // Adds a link from one row to another, choosing again among the old neighbours and the new one if the list is full.
+    private void connect(int row, int neighbour, int level) {
+        int[] links = level == 0 ? baseLinks : upperLinks;
+        int list = listOffset(row, level);
+        int capacity = level == 0 ? 2 * m : m;
+        int count = links[list];
+        if (count < capacity) {
+            links[list + count + 1] = neighbour;
+            links[list]++;
+            return;
+        }
+        int[] candidates = new int[count + 1];
+        float[] distances = new float[count + 1];
+        for (int i = 0; i <= count; i++) {
+            int candidate = i < count ? links[list + i + 1] : neighbour;
+            float distance = distance(points, row * dimensions, candidate);
+            int j = i;
+            while (j > 0 && (distances[j - 1] > distance || (distances[j - 1] == distance && candidates[j - 1] > candidate))) {
+                candidates[j] = candidates[j - 1];
+                distances[j] = distances[j - 1];
+                j--;
+            }
+            candidates[j] = candidate;
+            distances[j] = distance;
+        }
+        links[list] = select(candidates, distances, count + 1, capacity, links, list);
+    }
+
+    // Keeps, from the nearest, the candidates nearer to the row than to every candidate already kept, writing them after the length slot of a list.
+    private int select(int[] candidates, float[] distances, int count, int capacity, int[] links, int list) {
+        int kept = 0;
+        for (int i = 0; i < count && kept < capacity; i++) {
+            int candidate = candidates[i];
+            boolean diverse = true;
+            for (int j = 1; j <= kept && diverse; j++) {
+                diverse = distance(points, candidate * dimensions, links[list + j]) >= distances[i];
+            }
+            if (diverse) {
+                links[list + ++kept] = candidate;
+            }
+        }
+        return kept;
+    }
+
+    // Moves to the nearest neighbour on one level until no neighbour is nearer.
+    private int greedy(float[] query, int offset, int entry, int level) {
+        int[] links = level == 0 ? baseLinks : upperLinks;
+        int current = entry;
+        float best = distance(query, offset, current);
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            int list = listOffset(current, level);
+            for (int i = 1; i <= links[list]; i++) {
+                int neighbour = links[list + i];
+                float distance = distance(query, offset, neighbour);
+                if (distance < best || (distance == best && neighbour < current)) {
+                    best = distance;
+                    current = neighbour;
+                    moved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Explores one level from an entry row, keeping the ef best rows found and expanding candidates from the nearest.
+    private BoundedMaxHeap searchLevel(float[] query, int offset, int entry, int ef, int level) {
+        int[] links = level == 0 ? baseLinks : upperLinks;
+        int mark = nextMark();
+        BoundedMaxHeap found = new BoundedMaxHeap(ef);
+        CandidateQueue candidates = new CandidateQueue();
+        float distance = distance(query, offset, entry);
+        visited[entry] = mark;
+        found.offer(entry, distance);
+        candidates.push(entry, distance);
+        while (candidates.size > 0) {
+            if (candidates.distances[0] > found.bound()) {
+                break;
+            }
+            int current = candidates.pop();
+            int list = listOffset(current, level);
+            for (int i = 1; i <= links[list]; i++) {
+                int neighbour = links[list + i];
+                if (visited[neighbour] == mark) {
+                    continue;
+                }
+                visited[neighbour] = mark;
+                distance = distance(query, offset, neighbour);
+                if (found.accepts(neighbour, distance)) {
+                    candidates.push(neighbour, distance);
+                    found.offer(neighbour, distance);
+                }
+            }
+        }
+        return found;
+    }
+
+    private int nextMark() {
+        if (++visitMark == 0) {
+            visited = new int[levels.length];
+            visitMark = 1;
+        }
+        return visitMark;
+    }
+
+    private float distance(float[] query, int offset, int row) {
+        return DistanceKernel.squaredDistance(query, offset, points, row * dimensions, dimensions);
+    }
+
+    // Binary min-heap of the rows still to be expanded, ordered by distance and then by row.
+    private static class CandidateQueue {
+
+        private int[] rows = new int[64];
+        private float[] distances = new float[64];
+        private int size;
+
+        void push(int row, float distance) {
+            if (size == rows.length) {
+                int[] newRows = new int[size * 2];
+                System.arraycopy(rows, 0, newRows, 0, size);
+                rows = newRows;
+                float[] newDistances = new float[size * 2];
+                System.arraycopy(distances, 0, newDistances, 0, size);
+                distances = newDistances;
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(distance, row, distances[parent], rows[parent])) {
+                    break;
+                }
+                rows[i] = rows[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            rows[i] = row;
+            distances[i] = distance;
+        }
+
+        int pop() {
+            int top = rows[0];
+            size--;
+            int row = rows[size];
+            float distance = distances[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(distances[child + 1], rows[child + 1], distances[child], rows[child])) {
+                    child++;
+                }
+                if (!before(distances[child], rows[child], distance, row)) {
+                    break;
+                }
+                rows[i] = rows[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            rows[i] = row;
+            distances[i] = distance;
+            return top;
+        }
+
+        private static boolean before(float distance1, int row1, float distance2, int row2) {
+            return distance1 < distance2 || (distance1 == distance2 && row1 < row2);
+        }
+    }
+}
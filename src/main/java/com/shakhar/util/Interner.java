@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe pool of canonical instances, keyed by an identifier of the
+ * instance. Objects which are decoded again and again, such as the values
+ * stored in a <tt>BTreeMap</tt>, are resolved through an <tt>Interner</tt> so
+ * that equal objects are the same instance and can be compared by identity.
+ * The pool only holds weak references to its instances, so instances which
+ * are no longer used anywhere else are reclaimed by the garbage collector.
+ *
+ * @param <K> the type of identifiers
+ * @param <V> the type of instances
+ *
+ * @author Shakhar Dasgupta
+ */
+public class Interner<K, V> {
+
+    private static class Reference<K, V> extends WeakReference<V> {
+
+        final K key;
+
+        Reference(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Reference<K, V>> pool;
+    private final ReferenceQueue<V> queue;
+
+    /**
+     * Constructs an empty <tt>Interner</tt>.
+     */
+    public Interner() {
+        pool = new ConcurrentHashMap<>();
+        queue = new ReferenceQueue<>();
+    }
+
+    /**
+     * Returns the canonical instance with the specified identifier, or
+     * <tt>null</tt> if there is none.
+     *
+     * @param key identifier of the instance
+     * @return the canonical instance, or <tt>null</tt> if there is none
+     */
+    public V get(K key) {
+        expungeStaleReferences();
+        Reference<K, V> reference = pool.get(key);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * Returns the canonical instance with the specified identifier. If there
+     * is none, the specified instance becomes the canonical one.
+     *
+     * @param key identifier of the instance
+     * @param value the instance to be interned
+     * @return the canonical instance with the specified identifier
+     */
+    public V intern(K key, V value) {
+        expungeStaleReferences();
+        Reference<K, V> reference = new Reference<>(key, value, queue);
+        while (true) {
+            Reference<K, V> existing = pool.putIfAbsent(key, reference);
+            if (existing == null) {
+                return value;
+            }
+            V canonical = existing.get();
+            if (canonical != null) {
+                return canonical;
+            }
+            if (pool.replace(key, existing, reference)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of identifiers in the pool, including those whose
+     * instance has been reclaimed but not yet removed.
+     *
+     * @return the number of identifiers in the pool
+     */
+    public int size() {
+        expungeStaleReferences();
+        return pool.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expungeStaleReferences() {
+        java.lang.ref.Reference<? extends V> stale;
+        while ((stale = queue.poll()) != null) {
+            Reference<K, V> reference = (Reference<K, V>) stale;
+            pool.remove(reference.key, reference);
+        }
+    }
+}
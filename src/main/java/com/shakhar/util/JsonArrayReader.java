@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+/**
+ * Reader of JSON documents shaped as an array of arrays of scalars, such as
+ * <tt>[["NAME","P0010001"],["Alabama","4779736"]]</tt>, which is the shape of
+ * every Census API response. Rows are read one at a time from a
+ * <tt>char</tt> array. The values of a row are exposed as slices of the array
+ * and integers, quoted or not, are parsed in place, so reading a row allocates
+ * nothing.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class JsonArrayReader {
+
+    private static final int INITIAL_VALUE_CAPACITY = 16;
+
+    private final char[] buffer;
+    private final int end;
+    private int position;
+    private int valueCount;
+    private int[] valueStarts;
+    private int[] valueEnds;
+    private boolean[] quoted;
+
+    /**
+     * Constructs a <tt>JsonArrayReader</tt> over the whole of the specified
+     * array.
+     *
+     * @param buffer the array holding the JSON document
+     */
+    public JsonArrayReader(char[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Constructs a <tt>JsonArrayReader</tt> over a range of the specified
+     * array. The range may start at the beginning of any row.
+     *
+     * @param buffer the array holding the JSON document
+     * @param offset index of the first character of the range
+     * @param length number of characters in the range
+     */
+    public JsonArrayReader(char[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.end = offset + length;
+        position = offset;
+        valueStarts = new int[INITIAL_VALUE_CAPACITY];
+        valueEnds = new int[INITIAL_VALUE_CAPACITY];
+        quoted = new boolean[INITIAL_VALUE_CAPACITY];
+    }
+
+    /**
+     * Advances to the next row.
+     *
+     * @return <tt>true</tt> if there was a next row, <tt>false</tt> if the end
+     * of the range has been reached
+     * @throws IllegalArgumentException if the document is malformed
+     */
+    public boolean next() {
+        valueCount = 0;
+        // Find the opening bracket of a row, skipping the brackets of the enclosing array.
+        while (true) {
+            while (position < end && buffer[position] != '[') {
+                position++;
+            }
+            if (position >= end) {
+                return false;
+            }
+            position++;
+            skipWhitespace();
+            if (position < end && buffer[position] != '[') {
+                break;
+            }
+        }
+        while (position < end) {
+            char c = buffer[position];
+            if (c == ']') {
+                position++;
+                return true;
+            } else if (c == ',' || isWhitespace(c)) {
+                position++;
+            } else if (c == '"') {
+                int start = ++position;
+                while (position < end && buffer[position] != '"') {
+                    position += buffer[position] == '\\' ? 2 : 1;
+                }
+                addValue(start, position, true);
+                position++;
+            } else {
+                int start = position;
+                while (position < end && buffer[position] != ',' && buffer[position] != ']' && !isWhitespace(buffer[position])) {
+                    position++;
+                }
+                addValue(start, position, false);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated row at index " + position);
+    }
+
+    /**
+     * Returns the number of values in the current row.
+     *
+     * @return the number of values in the current row
+     */
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Returns the index in the array just past the current row.
+     *
+     * @return the index in the array just past the current row
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the index of the first value in the current row which is equal
+     * to the specified string. Used to map the names in a header row to
+     * column indices.
+     *
+     * @param name the string to look for
+     * @return the index of the first value equal to <tt>name</tt>, or -1 if
+     * there is no such value
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < valueCount; i++) {
+            int length = valueEnds[i] - valueStarts[i];
+            if (length == name.length()) {
+                int j = 0;
+                while (j < length && buffer[valueStarts[i] + j] == name.charAt(j)) {
+                    j++;
+                }
+                if (j == length) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified value of the current row is the
+     * JSON literal <tt>null</tt>.
+     *
+     * @param column index of the value
+     * @return <tt>true</tt> if the value is <tt>null</tt>
+     */
+    public boolean isNull(int column) {
+        checkColumn(column);
+        return !quoted[column] && valueEnds[column] - valueStarts[column] == 4 && buffer[valueStarts[column]] == 'n';
+    }
+
+    /**
+     * Parses the specified value of the current row as a non-negative decimal
+     * integer without materializing it.
+     *
+     * @param column index of the value
+     * @return the integer value
+     * @throws NumberFormatException if the value is not a non-negative
+     * decimal integer
+     */
+    public int getInt(int column) {
+        checkColumn(column);
+        return DelimitedRecordReader.parseInt(buffer, valueStarts[column], valueEnds[column]);
+    }
+
+    /**
+     * Returns the specified value of the current row as a <tt>String</tt>,
+     * with escape sequences decoded.
+     *
+     * @param column index of the value
+     * @return the value as a <tt>String</tt>
+     */
+    public String getString(int column) {
+        checkColumn(column);
+        int start = valueStarts[column];
+        int stop = valueEnds[column];
+        StringBuilder value = null;
+        for (int i = start; i < stop; i++) {
+            if (buffer[i] == '\\') {
+                if (value == null) {
+                    value = new StringBuilder(stop - start);
+                    value.append(buffer, start, i - start);
+                }
+                char c = buffer[++i];
+                switch (c) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        value.append((char) Integer.parseInt(new String(buffer, i + 1, 4), 16));
+                        i += 4;
+                        break;
+                    default:
+                        value.append(c);
+                }
+            } else if (value != null) {
+                value.append(buffer[i]);
+            }
+        }
+        return value == null ? new String(buffer, start, stop - start) : value.toString();
+    }
+
+    private void skipWhitespace() {
+        while (position < end && isWhitespace(buffer[position])) {
+            position++;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private void addValue(int start, int end, boolean isQuoted) {
+        if (valueCount == valueStarts.length) {
+            int capacity = valueCount * 2;
+            int[] starts = new int[capacity];
+            int[] ends = new int[capacity];
+            boolean[] quotes = new boolean[capacity];
+            System.arraycopy(valueStarts, 0, starts, 0, valueCount);
+            System.arraycopy(valueEnds, 0, ends, 0, valueCount);
+            System.arraycopy(quoted, 0, quotes, 0, valueCount);
+            valueStarts = starts;
+            valueEnds = ends;
+            quoted = quotes;
+        }
+        valueStarts[valueCount] = start;
+        valueEnds[valueCount] = end;
+        quoted[valueCount] = isQuoted;
+        valueCount++;
+    }
+
+    private void checkColumn(int column) {
+        if (column < 0 || column >= valueCount) {
+            throw new IndexOutOfBoundsException("Column " + column + " of a row with " + valueCount + " values");
+        }
+    }
+}
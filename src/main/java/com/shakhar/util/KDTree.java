@@ -0,0 +1,624 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Balanced k-d tree over points of a fixed number of dimensions, answering
+ * exact nearest neighbour queries under the euclidean distance. The tree is
+ * implicit: the points are stored in a flat array in tree order, the root of
+ * a range of rows being its middle row, so the tree is fully described by
+ * the points and the split dimension of every row and can be persisted as
+ * such. Rows are identified by their index in tree order.
+ * <p>
+ * The rows can be divided into partitions, contiguous ranges of rows each
+ * holding a tree of its own, so that a query can be restricted to one
+ * partition and only touch its rows. A query over every partition visits
+ * the partitions from the one whose bounding box is the nearest to the query
+ * and skips those whose box is farther than the rows already found.
+ * Radius queries visit every row within a distance of the query, pruning the
+ * partitions and subtrees which lie entirely beyond it.
+ * <p>
+ * A query can be split across a <tt>ForkJoinPool</tt>, the top of the trees
+ * being cut into subtrees which are searched in parallel and whose
+ * candidates are merged; since the heap orders rows at equal distances by
+ * row, the merged result is the same as the result of a sequential query.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class KDTree {
+
+    /**
+     * Predicate restricting the rows a query may return.
+     */
+    public interface Filter {
+
+        /**
+         * Returns <tt>true</tt> if the specified row may be returned.
+         *
+         * @param row the row, in tree order
+         * @return <tt>true</tt> if the row may be returned
+         */
+        boolean accept(int row);
+    }
+
+    /**
+     * Receiver of the rows found by a radius query.
+     */
+    public interface Visitor {
+
+        /**
+         * Receives a row within the radius of the query.
+         *
+         * @param row the row, in tree order
+         * @param squaredDistance the squared distance between the query and
+         * the row
+         */
+        void visit(int row, float squaredDistance);
+    }
+
+    private final int dimensions;
+    private final float[] points;
+    private final byte[] splitDimensions;
+    private final int[] partitionStarts;
+    // The lowest and highest coordinates of the rows of every partition, partition after partition.
+    private final float[] lowerBounds;
+    private final float[] upperBounds;
+
+    /**
+     * Constructs a <tt>KDTree</tt> with one partition from points already in
+     * tree order, as returned by <tt>getPoints()</tt> and
+     * <tt>getSplitDimensions()</tt> of a built tree.
+     *
+     * @param dimensions the number of dimensions of a point
+     * @param points the coordinates of the points, row after row, in tree
+     * order
+     * @param splitDimensions the split dimension of every row
+     */
+    public KDTree(int dimensions, float[] points, byte[] splitDimensions) {
+        this(dimensions, points, splitDimensions, new int[]{0, splitDimensions.length});
+    }
+
+    /**
+     * Constructs a partitioned <tt>KDTree</tt> from points already in tree
+     * order, as returned by <tt>getPoints()</tt>,
+     * <tt>getSplitDimensions()</tt> and <tt>getPartitionStarts()</tt> of a
+     * built tree.
+     *
+     * @param dimensions the number of dimensions of a point
+     * @param points the coordinates of the points, row after row, in tree
+     * order
+     * @param splitDimensions the split dimension of every row
+     * @param partitionStarts the first row of every partition, followed by
+     * the number of rows
+     */
+    public KDTree(int dimensions, float[] points, byte[] splitDimensions, int[] partitionStarts) {
+        this.dimensions = dimensions;
+        this.points = points;
+        this.splitDimensions = splitDimensions;
+        this.partitionStarts = partitionStarts;
+        int partitions = partitionStarts.length - 1;
+        lowerBounds = new float[partitions * dimensions];
+        upperBounds = new float[partitions * dimensions];
+        for (int p = 0; p < partitions; p++) {
+            for (int d = 0; d < dimensions; d++) {
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int row = partitionStarts[p]; row < partitionStarts[p + 1]; row++) {
+                    float value = points[row * dimensions + d];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                lowerBounds[p * dimensions + d] = min;
+                upperBounds[p * dimensions + d] = max;
+            }
+        }
+    }
+
+    /**
+     * Builds a <tt>KDTree</tt> with one partition over the specified points.
+     * The points are reordered into tree order, and the original row of every
+     * row in tree order is stored in <tt>order</tt> so that data kept
+     * alongside the points can be reordered likewise.
+     *
+     * @param dimensions the number of dimensions of a point
+     * @param points the coordinates of the points, row after row; reordered
+     * in place
+     * @param order receives the original row of every row in tree order; its
+     * length is the number of points
+     * @return the built tree
+     */
+    public static KDTree build(int dimensions, float[] points, int[] order) {
+        return build(dimensions, points, order, new int[]{0, order.length});
+    }
+
+    /**
+     * Builds a partitioned <tt>KDTree</tt> over the specified points, which
+     * are already grouped by partition. The points of every partition are
+     * reordered into tree order within the partition, and the original row of
+     * every row in tree order is stored in <tt>order</tt> so that data kept
+     * alongside the points can be reordered likewise.
+     *
+     * @param dimensions the number of dimensions of a point
+     * @param points the coordinates of the points, row after row, grouped by
+     * partition; reordered in place
+     * @param order receives the original row of every row in tree order; its
+     * length is the number of points
+     * @param partitionStarts the first row of every partition, followed by
+     * the number of rows
+     * @return the built tree
+     */
+    public static KDTree build(int dimensions, float[] points, int[] order, int[] partitionStarts) {
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        byte[] splitDimensions = new byte[order.length];
+        float[] source = points.clone();
+        for (int p = 0; p + 1 < partitionStarts.length; p++) {
+            build(dimensions, source, order, splitDimensions, partitionStarts[p], partitionStarts[p + 1]);
+        }
+        for (int i = 0; i < order.length; i++) {
+            System.arraycopy(source, order[i] * dimensions, points, i * dimensions, dimensions);
+        }
+        return new KDTree(dimensions, points, splitDimensions, partitionStarts);
+    }
+
+    // Splits a range of rows at its middle along the dimension of widest spread, then builds both halves.
+    private static void build(int dimensions, float[] source, int[] order, byte[] splitDimensions, int lo, int hi) {
+        if (hi - lo < 1) {
+            return;
+        }
+        int dimension = 0;
+        float widest = -1;
+        for (int d = 0; d < dimensions; d++) {
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int i = lo; i < hi; i++) {
+                float value = source[order[i] * dimensions + d];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                dimension = d;
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        select(dimensions, source, order, dimension, lo, hi - 1, mid);
+        splitDimensions[mid] = (byte) dimension;
+        build(dimensions, source, order, splitDimensions, lo, mid);
+        build(dimensions, source, order, splitDimensions, mid + 1, hi);
+    }
+
+    // Partially sorts order[lo..hi] so that order[k] holds the row of rank k along a dimension (quickselect).
+    private static void select(int dimensions, float[] source, int[] order, int dimension, int lo, int hi, int k) {
+        while (hi > lo) {
+            float pivot = source[order[(lo + hi) >>> 1] * dimensions + dimension];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (source[order[i] * dimensions + dimension] < pivot) {
+                    i++;
+                }
+                while (source[order[j] * dimensions + dimension] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of dimensions of a point.
+     *
+     * @return the number of dimensions of a point
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns the number of points in the tree.
+     *
+     * @return the number of points in the tree
+     */
+    public int size() {
+        return splitDimensions.length;
+    }
+
+    /**
+     * Returns the coordinates of the points, row after row, in tree order.
+     *
+     * @return the coordinates of the points
+     */
+    public float[] getPoints() {
+        return points;
+    }
+
+    /**
+     * Returns the split dimension of every row.
+     *
+     * @return the split dimension of every row
+     */
+    public byte[] getSplitDimensions() {
+        return splitDimensions;
+    }
+
+    /**
+     * Returns the first row of every partition, followed by the number of
+     * rows.
+     *
+     * @return the first row of every partition
+     */
+    public int[] getPartitionStarts() {
+        return partitionStarts;
+    }
+
+    /**
+     * Returns the number of partitions.
+     *
+     * @return the number of partitions
+     */
+    public int getPartitionCount() {
+        return partitionStarts.length - 1;
+    }
+
+    /**
+     * Returns the squared euclidean distance between a query and a row.
+     *
+     * @param query the coordinates of the query
+     * @param row the row, in tree order
+     * @return the squared euclidean distance
+     */
+    public float squaredDistance(float[] query, int row) {
+        return DistanceKernel.squaredDistance(query, 0, points, row * dimensions, dimensions);
+    }
+
+    /**
+     * Returns the row nearest to the specified query among the rows accepted
+     * by the filter.
+     *
+     * @param query the coordinates of the query
+     * @param filter the filter of the rows, or <tt>null</tt> to accept every
+     * row
+     * @return the nearest row in tree order, or -1 if no row is accepted
+     */
+    public int nearest(float[] query, Filter filter) {
+        BoundedMaxHeap heap = new BoundedMaxHeap(1);
+        nearest(query, filter, heap);
+        return heap.size() == 0 ? -1 : heap.drain(null)[0];
+    }
+
+    /**
+     * Collects into a heap the rows nearest to the specified query among the
+     * rows accepted by the filter, keyed by their squared distance. The
+     * number of rows collected is the capacity of the heap. Partitions and
+     * subtrees which cannot hold a row nearer than the worst one collected so
+     * far are pruned.
+     *
+     * @param query the coordinates of the query
+     * @param filter the filter of the rows, or <tt>null</tt> to accept every
+     * row
+     * @param heap the heap receiving the nearest rows
+     */
+    public void nearest(float[] query, Filter filter, BoundedMaxHeap heap) {
+        float[] floors = new float[getPartitionCount()];
+        for (int p : partitionsByDistance(query, floors)) {
+            if (floors[p] > heap.bound()) {
+                return;
+            }
+            nearest(query, filter, partitionStarts[p], partitionStarts[p + 1], heap, null);
+        }
+    }
+
+    /**
+     * Collects into a heap the rows of one partition nearest to the specified
+     * query among the rows accepted by the filter. Only the rows of the
+     * partition are visited.
+     *
+     * @param query the coordinates of the query
+     * @param filter the filter of the rows, or <tt>null</tt> to accept every
+     * row
+     * @param partition the partition
+     * @param heap the heap receiving the nearest rows
+     */
+    public void nearest(float[] query, Filter filter, int partition, BoundedMaxHeap heap) {
+        nearest(query, filter, partitionStarts[partition], partitionStarts[partition + 1], heap, null);
+    }
+
+    /**
+     * Collects into a heap the rows nearest to the specified query among the
+     * rows accepted by the filter, searching partitions and subtrees in
+     * parallel. Subtrees of at most <tt>subtreeSize</tt> rows are searched
+     * sequentially, each into its own heap, and the heaps are merged into
+     * <tt>heap</tt>. The searches share the best bound found so far to prune
+     * each other. The rows collected are the same as those of a sequential
+     * query. The filter must be safe to call from several threads.
+     *
+     * @param query the coordinates of the query
+     * @param filter the filter of the rows, or <tt>null</tt> to accept every
+     * row
+     * @param heap the heap receiving the nearest rows
+     * @param pool the pool running the searches
+     * @param subtreeSize the largest number of rows of a subtree searched
+     * sequentially
+     */
+    public void nearest(float[] query, Filter filter, BoundedMaxHeap heap, ForkJoinPool pool, int subtreeSize) {
+        float[] floors = new float[getPartitionCount()];
+        SharedBound shared = new SharedBound();
+        final List<Search> searches = new ArrayList<>();
+        for (int p : partitionsByDistance(query, floors)) {
+            searches.add(new Search(query, filter, heap.capacity(), subtreeSize, shared, partitionStarts[p], partitionStarts[p + 1], floors[p]));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(searches);
+            }
+        });
+        for (Search search : searches) {
+            heap.offerAll(search.join());
+        }
+    }
+
+    /**
+     * Collects into a heap the rows of one partition nearest to the specified
+     * query among the rows accepted by the filter, searching its subtrees in
+     * parallel like <tt>nearest(query, filter, heap, pool, subtreeSize)</tt>.
+     * The rows already in the heap bound the search, so a partition searched
+     * after others only visits the subtrees which can hold a nearer row. The
+     * rows collected are the same as those of a sequential query. The filter
+     * must be safe to call from several threads.
+     *
+     * @param query the coordinates of the query
+     * @param filter the filter of the rows, or <tt>null</tt> to accept every
+     * row
+     * @param partition the partition
+     * @param heap the heap receiving the nearest rows
+     * @param pool the pool running the searches
+     * @param subtreeSize the largest number of rows of a subtree searched
+     * sequentially
+     */
+    public void nearest(float[] query, Filter filter, int partition, BoundedMaxHeap heap, ForkJoinPool pool, int subtreeSize) {
+        SharedBound shared = new SharedBound();
+        if (heap.size() == heap.capacity()) {
+            shared.lower(heap.bound());
+        }
+        heap.offerAll(pool.invoke(new Search(query, filter, heap.capacity(), subtreeSize, shared, partitionStarts[partition], partitionStarts[partition + 1], 0)));
+    }
+
+    /**
+     * Passes to a visitor every row within the specified distance of the
+     * query among the rows accepted by the filter, in no particular order.
+     * Partitions whose bounding box and subtrees whose splitting plane are
+     * farther than the distance are skipped.
+     *
+     * @param query the coordinates of the query
+     * @param squaredRadius the square of the largest distance of a row
+     * @param filter the filter of the rows, or <tt>null</tt> to accept every
+     * row
+     * @param visitor the visitor receiving the rows
+     * @return the number of rows whose distance to the query was computed
+     */
+    public int within(float[] query, float squaredRadius, Filter filter, Visitor visitor) {
+        float[] floors = new float[getPartitionCount()];
+        int compared = 0;
+        for (int p : partitionsByDistance(query, floors)) {
+            if (floors[p] > squaredRadius) {
+                break;
+            }
+            compared += within(query, squaredRadius, filter, partitionStarts[p], partitionStarts[p + 1], visitor);
+        }
+        return compared;
+    }
+
+    /**
+     * Passes to a visitor every row of one partition within the specified
+     * distance of the query among the rows accepted by the filter, in no
+     * particular order. Only the rows of the partition are visited.
+     *
+     * @param query the coordinates of the query
+     * @param squaredRadius the square of the largest distance of a row
+     * @param filter the filter of the rows, or <tt>null</tt> to accept every
+     * row
+     * @param partition the partition
+     * @param visitor the visitor receiving the rows
+     * @return the number of rows whose distance to the query was computed
+     */
+    public int within(float[] query, float squaredRadius, Filter filter, int partition, Visitor visitor) {
+        return within(query, squaredRadius, filter, partitionStarts[partition], partitionStarts[partition + 1], visitor);
+    }
+
+    private int within(float[] query, float squaredRadius, Filter filter, int lo, int hi, Visitor visitor) {
+        if (lo >= hi) {
+            return 0;
+        }
+        int mid = (lo + hi) >>> 1;
+        float distance = squaredDistance(query, mid);
+        if (distance <= squaredRadius && (filter == null || filter.accept(mid))) {
+            visitor.visit(mid, distance);
+        }
+        int dimension = splitDimensions[mid];
+        float diff = query[dimension] - points[mid * dimensions + dimension];
+        int compared = 1;
+        if (diff <= 0 || diff * diff <= squaredRadius) {
+            compared += within(query, squaredRadius, filter, lo, mid, visitor);
+        }
+        if (diff >= 0 || diff * diff <= squaredRadius) {
+            compared += within(query, squaredRadius, filter, mid + 1, hi, visitor);
+        }
+        return compared;
+    }
+
+    /**
+     * Returns the non-empty partitions from the one whose bounding box is the
+     * nearest to the specified query to the farthest. The squared distance
+     * from the query to the box of every partition, a lower bound of the
+     * squared distance to its rows, is stored in <tt>floors</tt>.
+     *
+     * @param query the coordinates of the query
+     * @param floors receives the squared distance from the query to the box
+     * of every partition, indexed by partition
+     * @return the non-empty partitions, from the nearest to the farthest
+     */
+    public int[] partitionsByDistance(float[] query, float[] floors) {
+        int[] partitions = new int[floors.length];
+        int count = 0;
+        for (int p = 0; p < floors.length; p++) {
+            if (partitionStarts[p] == partitionStarts[p + 1]) {
+                continue;
+            }
+            float sum = 0;
+            for (int d = 0; d < dimensions; d++) {
+                float value = query[d];
+                float diff = Math.max(0, Math.max(lowerBounds[p * dimensions + d] - value, value - upperBounds[p * dimensions + d]));
+                sum += diff * diff;
+            }
+            floors[p] = sum;
+            int i = count++;
+            while (i > 0 && floors[partitions[i - 1]] > sum) {
+                partitions[i] = partitions[i - 1];
+                i--;
+            }
+            partitions[i] = p;
+        }
+        int[] sorted = new int[count];
+        System.arraycopy(partitions, 0, sorted, 0, count);
+        return sorted;
+    }
+
+    // Searches a range of rows, pruning its subtrees by the bound of its own heap and the bound shared between parallel searches.
+    private void nearest(float[] query, Filter filter, int lo, int hi, BoundedMaxHeap heap, SharedBound shared) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        float distance = squaredDistance(query, mid);
+        if (heap.accepts(mid, distance) && (filter == null || filter.accept(mid))) {
+            heap.offer(mid, distance);
+            if (shared != null && heap.size() == heap.capacity()) {
+                shared.lower(heap.bound());
+            }
+        }
+        int dimension = splitDimensions[mid];
+        float diff = query[dimension] - points[mid * dimensions + dimension];
+        if (diff < 0) {
+            nearest(query, filter, lo, mid, heap, shared);
+            if (diff * diff <= bound(heap, shared)) {
+                nearest(query, filter, mid + 1, hi, heap, shared);
+            }
+        } else {
+            nearest(query, filter, mid + 1, hi, heap, shared);
+            if (diff * diff <= bound(heap, shared)) {
+                nearest(query, filter, lo, mid, heap, shared);
+            }
+        }
+    }
+
+    private static float bound(BoundedMaxHeap heap, SharedBound shared) {
+        return shared == null ? heap.bound() : Math.min(heap.bound(), shared.value);
+    }
+
+    // The lowest bound of the full heaps of the parallel searches of one query. The k-th distance of any subtree or partition is at least the k-th distance of the whole tree, so pruning by it is exact.
+    private static class SharedBound {
+
+        private volatile float value = Float.POSITIVE_INFINITY;
+
+        synchronized void lower(float bound) {
+            if (bound < value) {
+                value = bound;
+            }
+        }
+    }
+
+    // Searches a range of rows, forking the searches of its two halves until they are small enough to be searched sequentially.
+    private class Search extends RecursiveTask<BoundedMaxHeap> {
+
+        private final float[] query;
+        private final Filter filter;
+        private final int capacity;
+        private final int subtreeSize;
+        private final SharedBound shared;
+        private final int lo;
+        private final int hi;
+        // A lower bound of the squared distance from the query to any row of the range.
+        private final float floor;
+
+        Search(float[] query, Filter filter, int capacity, int subtreeSize, SharedBound shared, int lo, int hi, float floor) {
+            this.query = query;
+            this.filter = filter;
+            this.capacity = capacity;
+            this.subtreeSize = subtreeSize;
+            this.shared = shared;
+            this.lo = lo;
+            this.hi = hi;
+            this.floor = floor;
+        }
+
+        @Override
+        protected BoundedMaxHeap compute() {
+            BoundedMaxHeap heap = new BoundedMaxHeap(capacity);
+            if (lo >= hi || floor > shared.value) {
+                return heap;
+            }
+            if (hi - lo <= subtreeSize) {
+                nearest(query, filter, lo, hi, heap, shared);
+                return heap;
+            }
+            int mid = (lo + hi) >>> 1;
+            float distance = squaredDistance(query, mid);
+            if (filter == null || filter.accept(mid)) {
+                heap.offer(mid, distance);
+            }
+            int dimension = splitDimensions[mid];
+            float diff = query[dimension] - points[mid * dimensions + dimension];
+            float left = diff < 0 ? floor : Math.max(floor, diff * diff);
+            float right = diff < 0 ? Math.max(floor, diff * diff) : floor;
+            Search leftSearch = new Search(query, filter, capacity, subtreeSize, shared, lo, mid, left);
+            Search rightSearch = new Search(query, filter, capacity, subtreeSize, shared, mid + 1, hi, right);
+            // The nearer half is searched by this thread so that it tightens the shared bound first.
+            if (diff < 0) {
+                rightSearch.fork();
+                heap.offerAll(leftSearch.compute());
+                heap.offerAll(rightSearch.join());
+            } else {
+                leftSearch.fork();
+                heap.offerAll(rightSearch.compute());
+                heap.offerAll(leftSearch.join());
+            }
+            return heap;
+        }
+    }
+}
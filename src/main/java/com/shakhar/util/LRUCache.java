@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe in-memory cache holding a bounded number of entries. When the
+ * cache is full, the least recently used entry is evicted. The cache counts
+ * its hits and misses so that its effectiveness can be reported.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ *
+ * @author Shakhar Dasgupta
+ */
+public class LRUCache<K, V> {
+
+    private final Map<K, V> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs an empty <tt>LRUCache</tt> holding at most the specified
+     * number of entries.
+     *
+     * @param capacity the number of entries to hold
+     */
+    public LRUCache(final int capacity) {
+        entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the value cached for the specified key, or <tt>null</tt> if
+     * there is none, counting a hit or a miss.
+     *
+     * @param key the key
+     * @return the value cached for the key, or <tt>null</tt>
+     */
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Caches a value for the specified key, evicting the least recently used
+     * entry if the cache is full.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    /**
+     * Removes every entry from the cache. The counts of hits and misses are
+     * kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return the number of entries in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups which found a value.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which found no value.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of lookups which found a value.
+     *
+     * @return the hit rate, between 0 and 1, or 0 if there was no lookup
+     */
+    public synchronized float getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (float) hits / lookups;
+    }
+}
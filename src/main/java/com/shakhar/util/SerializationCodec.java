@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * <tt>Codec</tt> which uses Java serialization.
+ *
+ * @author Shakhar Dasgupta
+ * @param <E> type of objects encoded
+ */
+public class SerializationCodec<E extends Serializable> implements Codec<E> {
+
+    @Override
+    public void write(DataOutputStream out, E element) throws IOException {
+        ObjectOutputStream objectOutput = new ObjectOutputStream(out);
+        objectOutput.writeObject(element);
+        objectOutput.flush();
+    }
+
+    @Override
+    public E read(DataInputStream in) throws IOException {
+        try {
+            return (E) new ObjectInputStream(in).readObject();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
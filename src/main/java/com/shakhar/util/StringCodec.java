@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * <tt>Codec</tt> which writes a <tt>String</tt> in modified UTF-8.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class StringCodec implements Codec<String> {
+
+    @Override
+    public void write(DataOutputStream out, String element) throws IOException {
+        out.writeUTF(element);
+    }
+
+    @Override
+    public String read(DataInputStream in) throws IOException {
+        return in.readUTF();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import com.shakhar.util.HashCache;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes synthetic Census responses into the download cache of the working
+ * directory, so that <tt>CensusData</tt> loads them instead of downloading.
+ * The responses have the layout of the real ones: the list of states, the
+ * list of places or of counties, and the Census API tables with the eight
+ * population counts of every place, tract or block group. The rows are
+ * spread evenly over five states and their counts are drawn from a seeded
+ * generator, so a fixture of a given size is the same on every run. Run it
+ * in an empty directory with the geography level and the number of rows,
+ * such as <tt>BLOCK_GROUP 220000</tt>.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class CensusFixture {
+
+    private static final String STATES_URL = "http://www2.census.gov/geo/docs/reference/state.txt";
+    private static final String PLACES_URL = "http://www2.census.gov/geo/docs/reference/codes/files/national_places.txt";
+    private static final String COUNTIES_URL = "http://www2.census.gov/geo/docs/reference/codes/files/national_county.txt";
+    private static final String CENSUS_BASE_URL = "http://api.census.gov/data/2010/sf1?get=P0030001,P0030002,P0030003,P0030004,P0030005,P0030006,P0030007,P0030008";
+    private static final String CENSUS_HEADER = "[[\"P0030001\",\"P0030002\",\"P0030003\",\"P0030004\",\"P0030005\",\"P0030006\",\"P0030007\",\"P0030008\"";
+    private static final String[][] STATES = {{"01", "AL", "Alabama"}, {"02", "AK", "Alaska"}, {"04", "AZ", "Arizona"}, {"06", "CA", "California"}, {"56", "WY", "Wyoming"}};
+    private static final int COUNTIES_PER_STATE = 100;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) throws IOException {
+        write(GeographyLevel.valueOf(args[0]), Integer.parseInt(args[1]));
+    }
+
+    /**
+     * Writes a fixture with the specified number of rows at the specified
+     * level into the cache of the working directory, replacing any response
+     * cached for the same URLs.
+     *
+     * @param level the geography level of the rows
+     * @param rows the number of rows, a multiple of five
+     * @throws IOException if the cache cannot be written
+     */
+    public static void write(GeographyLevel level, int rows) throws IOException {
+        Random random = new Random(SEED);
+        HashCache<String, String> cache = new HashCache<>("cache");
+        StringBuilder states = new StringBuilder("STATE|STUSAB|STATE_NAME|STATENS\n");
+        for (String[] state : STATES) {
+            states.append(state[0]).append('|').append(state[1]).append('|').append(state[2]).append("|01779775\n");
+        }
+        cache.put(STATES_URL, states.toString());
+        if (level == GeographyLevel.PLACE) {
+            StringBuilder places = new StringBuilder("STATE|STATEFP|PLACEFP|PLACENAME|TYPE|FUNCSTAT|COUNTY\r\n\r\n");
+            StringBuilder census = new StringBuilder(CENSUS_HEADER).append(",\"state\",\"place\"]");
+            for (int i = 0; i < rows; i++) {
+                String[] state = STATES[i % STATES.length];
+                String placeCode = String.format("%05d", i);
+                places.append(state[1]).append('|').append(state[0]).append('|').append(placeCode).append("|Place ").append(i).append(" city|Incorporated Place|A|County ").append(i % 50).append("\r\n\r\n");
+                appendCounts(census, random, 5000);
+                census.append(",\"").append(state[0]).append("\",\"").append(placeCode).append("\"]");
+            }
+            cache.put(PLACES_URL, places.toString());
+            cache.put(CENSUS_BASE_URL + "&for=" + level.getForClause(), census.append(']').toString());
+            return;
+        }
+        StringBuilder counties = new StringBuilder();
+        for (String[] state : STATES) {
+            for (int county = 0; county < COUNTIES_PER_STATE; county++) {
+                String code = String.format("%03d", 2 * county + 1);
+                counties.append(state[1]).append(',').append(state[0]).append(',').append(code).append(",County ").append(code).append(",H1\r\n");
+            }
+        }
+        cache.put(COUNTIES_URL, counties.toString());
+        boolean blockGroups = level == GeographyLevel.BLOCK_GROUP;
+        for (String[] state : STATES) {
+            StringBuilder census = new StringBuilder(CENSUS_HEADER).append(blockGroups ? ",\"state\",\"county\",\"tract\",\"block group\"]" : ",\"state\",\"county\",\"tract\"]");
+            for (int i = 0; i < rows / STATES.length; i++) {
+                // Every county gets every hundredth row, and every tract of a county four consecutive ones.
+                int county = 2 * (i % COUNTIES_PER_STATE) + 1;
+                int ordinal = i / COUNTIES_PER_STATE;
+                int tract = blockGroups ? 100 + ordinal / 4 * 100 : 100 + ordinal * 100;
+                appendCounts(census, random, blockGroups ? 1500 : 6000);
+                census.append(",\"").append(state[0]).append("\",\"").append(String.format("%03d", county)).append("\",\"").append(String.format("%06d", tract)).append('"');
+                if (blockGroups) {
+                    census.append(",\"").append(1 + ordinal % 4).append('"');
+                }
+                census.append(']');
+            }
+            cache.put(CENSUS_BASE_URL + "&for=" + level.getForClause() + "&in=state:" + state[0] + "%20" + level.getInClause(), census.append(']').toString());
+        }
+    }
+
+    // Appends a row opening with the total and the seven counts, the white count drawn up to the specified maximum.
+    private static void appendCounts(StringBuilder census, Random random, int maxWhite) {
+        int[] counts = new int[7];
+        int total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = i == 0 ? 1 + random.nextInt(maxWhite) : random.nextInt(maxWhite / 10);
+            total += counts[i];
+        }
+        census.append(",\n[\"").append(total).append('"');
+        for (int count : counts) {
+            census.append(",\"").append(count).append('"');
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.census;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loads a <tt>CensusFixture</tt> and checks the searches of
+ * <tt>CensusData</tt> against a scan of every place. The nearest places under
+ * every metric, nationally and within a state, must have the distances of
+ * the nearest places found by the scan, whether they are answered by the
+ * indexes, by a progressive query or by the neighbour graph once it is
+ * built. The check prints the time to ingest and to reopen the fixture, the
+ * heap retained by the reopened data, the median query time while the
+ * neighbour graph is built, and the recall of the approximate index. Run it in an empty directory with the geography
+ * level and the number of rows, such as <tt>BLOCK_GROUP 220000</tt>; it
+ * prints <tt>OK</tt> or throws on the first failure.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class CensusFixtureCheck {
+
+    private static final int K = 25;
+    private static final int QUERIES = 20;
+    private static final float TOLERANCE = 1e-4f;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        GeographyLevel level = GeographyLevel.valueOf(args[0]);
+        int rows = Integer.parseInt(args[1]);
+        CensusFixture.write(level, rows);
+
+        long start = System.nanoTime();
+        CensusData data = new CensusData(level);
+        System.out.println("ingest ms " + (System.nanoTime() - start) / 1000000);
+        List<String> names = data.getPlaceNames();
+        check(names.size() == rows, "every row is a place: " + names.size());
+        List<Population> populations = new ArrayList<>();
+        for (String name : names) {
+            populations.add(data.getPopulationByPlace(name));
+        }
+        Random random = new Random(7);
+        List<Population> queries = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(populations.get(random.nextInt(populations.size())));
+        }
+
+        // These queries run while the neighbour graph is built in the background, so they are mostly answered by the indexes.
+        DistanceMetric[] metrics = {DistanceMetric.EUCLIDEAN, DistanceMetric.HELLINGER, DistanceMetric.COSINE, DistanceMetric.JENSEN_SHANNON,
+            DistanceMetric.weightedL1(1, 2, 2, 2, 2, 2, 2), DistanceMetric.weightedEuclidean(1, 2, 2, 2, 2, 2, 2)};
+        long[] times = new long[QUERIES * metrics.length];
+        int timed = 0;
+        for (DistanceMetric metric : metrics) {
+            for (Population query : queries) {
+                start = System.nanoTime();
+                List<Neighbor> nearest = data.getNearestPopulations(query, null, K, metric);
+                times[timed++] = System.nanoTime() - start;
+                checkNearest(nearest, scan(populations, query, null, metric, K), metric + " nationally");
+                String state = query.getPlace().getState().getName();
+                checkNearest(data.getNearestPopulations(query, state, K, metric), scan(populations, query, state, metric, K), metric + " in " + state);
+            }
+        }
+        Arrays.sort(times);
+        System.out.println("median query us " + times[times.length / 2] / 1000);
+
+        // A progressive query reports its result complete last; it asks for one more place so that it is not answered from the cache.
+        for (DistanceMetric metric : metrics) {
+            final List<List<Neighbor>> reports = new ArrayList<>();
+            Population query = queries.get(0);
+            List<Neighbor> nearest = data.getNearestPopulations(query, null, K + 1, metric, null, new NeighborListener() {
+                @Override
+                public void neighborsFound(List<Neighbor> neighbors, boolean complete) {
+                    reports.add(complete ? neighbors : null);
+                }
+            });
+            check(reports.get(reports.size() - 1) != null, metric + " progressive query completes");
+            checkNearest(nearest, scan(populations, query, null, metric, K + 1), metric + " progressively");
+        }
+
+        while (!data.isNeighborGraphReady()) {
+            Thread.sleep(1000);
+        }
+        // Once the graph is built nothing refers to the first instance, so the heap measured is that of the reopened data.
+        data = null;
+        populations = null;
+        start = System.nanoTime();
+        data = new CensusData(level);
+        System.out.println("reopen ms " + (System.nanoTime() - start) / 1000000);
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.println("heap MB " + (runtime.totalMemory() - runtime.freeMemory()) / 1048576);
+
+        populations = new ArrayList<>();
+        for (String name : names) {
+            populations.add(data.getPopulationByPlace(name));
+        }
+        check(data.isNeighborGraphReady(), "neighbour graph is reopened");
+        for (Population query : queries) {
+            checkNearest(data.getNearestPopulations(query, null, K), scan(populations, query, null, DistanceMetric.EUCLIDEAN, K), "graph nationally");
+            String state = query.getPlace().getState().getName();
+            checkNearest(data.getNearestPopulations(query, state, K), scan(populations, query, state, DistanceMetric.EUCLIDEAN, K), "graph in " + state);
+        }
+        System.out.println("approximate recall " + data.getApproximateRecall(QUERIES, K, 64));
+        System.out.println("OK");
+    }
+
+    // Returns the distances of the k places nearest to the query, from the nearest, found by comparing every place.
+    private static float[] scan(List<Population> populations, Population query, String state, DistanceMetric metric, int k) {
+        float[] distances = new float[populations.size()];
+        int count = 0;
+        for (Population population : populations) {
+            if (population.getPlace().equals(query.getPlace())) {
+                continue;
+            }
+            if (state != null && !state.equals(population.getPlace().getState().getName())) {
+                continue;
+            }
+            distances[count++] = metric.distance(query.getComposition(), population.getComposition());
+        }
+        Arrays.sort(distances, 0, count);
+        return Arrays.copyOf(distances, Math.min(k, count));
+    }
+
+    private static void checkNearest(List<Neighbor> nearest, float[] expected, String query) {
+        check(nearest.size() == expected.length, query + " returns " + nearest.size() + " places, not " + expected.length);
+        for (int i = 0; i < expected.length; i++) {
+            float distance = nearest.get(i).getDistance();
+            check(Math.abs(distance - expected[i]) <= TOLERANCE * Math.max(1, expected[i]), query + " distance " + i + " is " + distance + ", not " + expected[i]);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
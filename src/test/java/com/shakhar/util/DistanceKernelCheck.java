@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the block kernels of <tt>DistanceKernel</tt> against its scalar
+ * kernel. Points are drawn at random for sizes on both sides of a multiple of
+ * <tt>LANES</tt> and for several numbers of dimensions, laid out in columns,
+ * and every block of a size, from the empty block to the whole column, as
+ * well as random blocks, must give the distances of the scalar kernel and
+ * leave the rest of the output alone. The quantized kernel is checked the
+ * same way against the scalar distance of the quantized points, and against
+ * the bound on its error documented by <tt>DistanceKernel</tt>. The check is
+ * run long enough for the kernels to be compiled. It prints <tt>OK</tt> or
+ * throws on the first failure.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class DistanceKernelCheck {
+
+    private static final int[] SIZES = {1, 2, DistanceKernel.LANES - 1, DistanceKernel.LANES, DistanceKernel.LANES + 1, 2 * DistanceKernel.LANES + 3, 1000, 4099};
+    private static final int[] DIMENSIONS = {1, 7, 8};
+    private static final int ROUNDS = 200;
+    private static final float SENTINEL = -1;
+    private static final float SCALE = 255;
+
+    public static void main(String[] args) {
+        Random random = new Random(11);
+        for (int size : SIZES) {
+            for (int dimensions : DIMENSIONS) {
+                float[] points = new float[size * dimensions];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = random.nextFloat();
+                }
+                checkColumns(points, size, dimensions);
+                for (int round = 0; round < ROUNDS; round++) {
+                    float[] query = new float[dimensions];
+                    for (int d = 0; d < dimensions; d++) {
+                        // Queries slightly outside the unit cube also exercise the clamping of the quantization.
+                        query[d] = random.nextFloat() * 1.2f - 0.1f;
+                    }
+                    int from = random.nextInt(size + 1);
+                    int to = from + random.nextInt(size - from + 1);
+                    checkBlock(points, size, dimensions, query, from, to);
+                    checkQuantizedBlock(points, size, dimensions, query, from, to);
+                }
+                float[] query = Arrays.copyOf(points, dimensions);
+                for (int from = 0; from <= size && from < 3 * DistanceKernel.LANES; from++) {
+                    checkBlock(points, size, dimensions, query, from, size);
+                    checkBlock(points, size, dimensions, query, 0, from);
+                    checkQuantizedBlock(points, size, dimensions, query, from, size);
+                }
+            }
+        }
+        System.out.println("OK");
+    }
+
+    // Checks that the columns hold the points at a padded stride, with zeros in the padding.
+    private static void checkColumns(float[] points, int size, int dimensions) {
+        int stride = DistanceKernel.stride(size);
+        check(stride >= size && stride % DistanceKernel.LANES == 0 && stride - size < DistanceKernel.LANES, "stride " + stride + " of " + size + " points");
+        float[] columns = DistanceKernel.toColumns(points, dimensions);
+        check(columns.length == dimensions * stride, "columns of " + size + " points");
+        for (int d = 0; d < dimensions; d++) {
+            for (int i = 0; i < stride; i++) {
+                float expected = i < size ? points[i * dimensions + d] : 0;
+                check(columns[d * stride + i] == expected, "column " + d + " at " + i + " of " + size + " points");
+            }
+        }
+    }
+
+    private static void checkBlock(float[] points, int size, int dimensions, float[] query, int from, int to) {
+        int stride = DistanceKernel.stride(size);
+        float[] distances = new float[stride + 1];
+        Arrays.fill(distances, SENTINEL);
+        DistanceKernel.squaredDistances(query, DistanceKernel.toColumns(points, dimensions), stride, from, to, distances);
+        for (int i = 0; i < to - from; i++) {
+            float expected = DistanceKernel.squaredDistance(query, 0, points, (from + i) * dimensions, dimensions);
+            check(distances[i] == expected, "distance of point " + (from + i) + " of " + size + " in " + dimensions + " dimensions is " + distances[i] + ", not " + expected);
+        }
+        for (int i = to - from; i < distances.length; i++) {
+            check(distances[i] == SENTINEL, "distance written past block [" + from + ", " + to + ") of " + size + " points");
+        }
+    }
+
+    private static void checkQuantizedBlock(float[] points, int size, int dimensions, float[] query, int from, int to) {
+        int stride = DistanceKernel.stride(size);
+        byte[] quantizedQuery = DistanceKernel.quantize(query, SCALE);
+        byte[] quantizedPoints = DistanceKernel.quantize(points, SCALE);
+        byte[] columns = DistanceKernel.quantize(DistanceKernel.toColumns(points, dimensions), SCALE);
+        int[] distances = new int[stride + 1];
+        Arrays.fill(distances, (int) SENTINEL);
+        DistanceKernel.squaredDistances(quantizedQuery, columns, stride, from, to, distances);
+        float[] clampedQuery = new float[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            clampedQuery[d] = Math.max(0, Math.min(1, query[d]));
+        }
+        for (int i = 0; i < to - from; i++) {
+            int expected = 0;
+            for (int d = 0; d < dimensions; d++) {
+                int diff = (quantizedPoints[(from + i) * dimensions + d] & 0xff) - (quantizedQuery[d] & 0xff);
+                expected += diff * diff;
+            }
+            check(distances[i] == expected, "quantized distance of point " + (from + i) + " of " + size + " in " + dimensions + " dimensions is " + distances[i] + ", not " + expected);
+            double exact = SCALE * Math.sqrt(DistanceKernel.squaredDistance(clampedQuery, 0, points, (from + i) * dimensions, dimensions));
+            check(Math.abs(Math.sqrt(distances[i]) - exact) <= Math.sqrt(dimensions) + 1e-3, "quantized distance of point " + (from + i) + " is off by more than the bound");
+        }
+        for (int i = to - from; i < distances.length; i++) {
+            check(distances[i] == (int) SENTINEL, "quantized distance written past block [" + from + ", " + to + ") of " + size + " points");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 Shakhar Dasgupta <sdasgupt@oswego.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.shakhar.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs a <tt>Downloader</tt> against a stub server on the loopback interface
+ * and checks the refresh, resume and restart paths: a first download, a
+ * conditional refresh answered with <tt>304</tt>, the resume of an
+ * interrupted transfer, the restart of a resume answered with <tt>416</tt>
+ * because the partial file was complete, and the restart of a resume whose
+ * content changed on the server. Run it with the classes of the application
+ * on the class path; it prints <tt>OK</tt> or throws on the first failure.
+ *
+ * @author Shakhar Dasgupta
+ */
+public class DownloaderCheck {
+
+    // Serves a gzip encoded body with an ETag, honouring conditional and range requests.
+    private static class StubHandler implements HttpHandler {
+
+        byte[] body;
+        String etag;
+        boolean truncate;
+        final List<String> ranges = new ArrayList<>();
+
+        void publish(String content, String etag) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                out.write(content.getBytes());
+            }
+            this.body = bytes.toByteArray();
+            this.etag = etag;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            ranges.add(range);
+            exchange.getResponseHeaders().set("ETag", etag);
+            try {
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                int from = 0;
+                if (range != null && etag.equals(ifRange)) {
+                    from = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                    if (from >= body.length) {
+                        exchange.getResponseHeaders().set("Content-Range", "bytes */" + body.length);
+                        exchange.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (body.length - 1) + "/" + body.length);
+                    exchange.sendResponseHeaders(206, body.length - from);
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                if (truncate) {
+                    out.write(body, from, (body.length - from) / 2);
+                    out.flush();
+                } else {
+                    out.write(body, from, body.length - from);
+                }
+            } finally {
+                // Closing a truncated body drops the connection.
+                exchange.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        StubHandler handler = new StubHandler();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/data", handler);
+        server.start();
+        File directory = File.createTempFile("downloader", "");
+        directory.delete();
+        directory.mkdir();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/data";
+            Map<String, String> cache = new HashMap<>();
+            Downloader downloader = new Downloader(cache, new File(directory, "download").getPath());
+            File partialFile = new File(directory, "download." + Integer.toHexString(url.hashCode()) + ".part");
+
+            handler.publish(content(1), "\"v1\"");
+            check(downloader.fetch(url), "first download stores the content");
+            check(content(1).equals(cache.get(url)), "first download is decoded");
+            check(!downloader.fetch(url), "refresh of unchanged content is not modified");
+
+            handler.publish(content(2), "\"v2\"");
+            handler.truncate = true;
+            check(failsToFetch(downloader, url), "truncated transfer fails");
+            check(partialFile.length() == handler.body.length / 2, "truncated transfer is kept");
+            handler.truncate = false;
+            handler.ranges.clear();
+            check(downloader.fetch(url), "interrupted transfer is resumed");
+            check(("bytes=" + handler.body.length / 2 + "-").equals(handler.ranges.get(0)), "resume starts after the partial file");
+            check(content(2).equals(cache.get(url)), "resumed download is decoded");
+            check(!partialFile.exists(), "partial file is deleted");
+
+            // The process died after receiving every byte, before moving the partial file into the cache.
+            handler.publish(content(3), "\"v3\"");
+            handler.truncate = true;
+            check(failsToFetch(downloader, url), "truncated transfer fails");
+            handler.truncate = false;
+            try (FileOutputStream out = new FileOutputStream(partialFile)) {
+                out.write(handler.body);
+            }
+            handler.ranges.clear();
+            check(downloader.fetch(url), "complete partial file is restarted");
+            check(handler.ranges.size() == 2 && handler.ranges.get(1) == null, "416 restarts from the first byte");
+            check(content(3).equals(cache.get(url)), "restarted download is decoded");
+            check(!downloader.fetch(url), "refresh after a restart is not modified");
+
+            handler.publish(content(4), "\"v4\"");
+            handler.truncate = true;
+            check(failsToFetch(downloader, url), "truncated transfer fails");
+            handler.truncate = false;
+            handler.publish(content(5), "\"v5\"");
+            check(downloader.fetch(url), "changed content is restarted");
+            check(content(5).equals(cache.get(url)), "changed content is not spliced");
+            System.out.println("OK");
+        } finally {
+            server.stop(0);
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    // Returns text large enough to span many buffers, distinct for every version.
+    private static String content(int version) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            content.append(version).append(',').append(i * 7919 % 100003).append('\n');
+        }
+        return content.toString();
+    }
+
+    private static boolean failsToFetch(Downloader downloader, String url) {
+        try {
+            downloader.fetch(url);
+            return false;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}